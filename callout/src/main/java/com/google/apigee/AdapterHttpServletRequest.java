@@ -99,6 +99,19 @@ public class AdapterHttpServletRequest implements HttpServletRequest {
     this.length = requestLength;
     this.m_strContentType = strContentType;
     this.m_headers.put(FileUploadBase.CONTENT_TYPE, strContentType);
+    putContentLengthHeader();
+  }
+
+  /**
+   * fileupload reads the length from the Content-length header, as a long, and
+   * falls back to getContentLength(), an int, only if there is no such header.
+   */
+  private void putContentLengthHeader() {
+    if ((null != this.m_requestData) && (this.length >= 0)) {
+      this.m_headers.put(FileUploadBase.CONTENT_LENGTH, String.valueOf(this.length));
+    } else {
+      this.m_headers.remove(FileUploadBase.CONTENT_LENGTH);
+    }
   }
 
   /**
@@ -343,11 +356,9 @@ public class AdapterHttpServletRequest implements HttpServletRequest {
     if ((null == this.m_requestData)) {
       iLength = (-1);
     } else {
-      if ((this.length > Integer.MAX_VALUE)) {
-          String b = "Value \'" + this.length  + "\' is too large to be converted to int";
-          throw new RuntimeException(b);
-      }
-      iLength = ((int) this.length);
+      // as the servlet API specifies, -1 for a length that does not fit an int;
+      // getContentLengthLong() and the Content-length header have the value
+      iLength = (this.length > Integer.MAX_VALUE) ? (-1) : ((int) this.length);
     }
     return iLength;
   }
@@ -357,6 +368,7 @@ public class AdapterHttpServletRequest implements HttpServletRequest {
    */
   public void setContentLength(final long length) {
     this.length = length;
+    putContentLengthHeader();
   }
 
   /**
@@ -607,7 +619,7 @@ public class AdapterHttpServletRequest implements HttpServletRequest {
 
   @Override
   public long getContentLengthLong() {
-    throw new UnsupportedOperationException("TODO: auto-generated method stub");
+    return (null == this.m_requestData) ? (-1) : this.length;
   }
 
   @Override
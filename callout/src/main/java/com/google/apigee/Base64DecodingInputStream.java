@@ -0,0 +1,204 @@
+// Base64DecodingInputStream.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * An InputStream that decodes base64 text as it is read, directly from the characters, without
+ * first converting them to bytes. It accepts what {@link java.util.Base64#getDecoder()} accepts:
+ * the basic alphabet, with or without padding, and no line breaks.
+ */
+public class Base64DecodingInputStream extends InputStream {
+  private static final int[] values = new int[128];
+
+  static {
+    Arrays.fill(values, -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) {
+      values[alphabet.charAt(i)] = i;
+    }
+  }
+
+  private final CharSequence chars;
+  private final int end; // excludes padding
+  private int position;
+  private final byte[] group = new byte[3];
+  private int groupPosition;
+  private int groupLength;
+
+  /** The text must be valid; check it first with {@link #decodedLength}. */
+  public Base64DecodingInputStream(final CharSequence chars) {
+    this.chars = chars;
+    this.end = chars.length() - paddingLength(chars);
+  }
+
+  private static int paddingLength(CharSequence chars) {
+    int n = chars.length();
+    if (n > 0 && chars.charAt(n - 1) == '=') {
+      return (n > 1 && chars.charAt(n - 2) == '=') ? 2 : 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Checks that the text is valid base64, and returns the number of bytes it decodes to, without
+   * decoding it.
+   *
+   * @throws IllegalArgumentException if the text is not valid base64
+   */
+  public static long decodedLength(final CharSequence chars) {
+    int n = chars.length();
+    int padding = paddingLength(chars);
+    if (padding > 0 && n % 4 != 0) {
+      throw new IllegalArgumentException("Input byte array has incorrect ending byte");
+    }
+    int dataLength = n - padding;
+    for (int i = 0; i < dataLength; i++) {
+      char c = chars.charAt(i);
+      if (c >= 128 || values[c] < 0) {
+        throw new IllegalArgumentException(
+            String.format("Illegal base64 character %x", (int) c));
+      }
+    }
+    if (dataLength % 4 == 1) {
+      throw new IllegalArgumentException("Last unit does not have enough valid bits");
+    }
+    return (long) dataLength / 4 * 3 + ((dataLength % 4 == 0) ? 0 : dataLength % 4 - 1);
+  }
+
+  /**
+   * Returns the number of bytes that MIME base64 content decodes to, by the rules of {@link
+   * java.util.Base64#getMimeDecoder()}, without decoding it: characters outside the alphabet, like
+   * line breaks, are skipped, and the content ends at its padding.
+   *
+   * @throws IOException if the content does not end as the decoder requires
+   */
+  public static long mimeDecodedLength(final InputStream encoded) throws IOException {
+    byte[] scratch = new byte[8192];
+    long count = 0; // characters of the alphabet
+    boolean padding = false; // one "=" of two
+    int n;
+    while ((n = encoded.read(scratch)) != -1) {
+      for (int i = 0; i < n; i++) {
+        int c = scratch[i] & 0xff;
+        if (padding || c == '=') {
+          long remainder = count % 4;
+          if (remainder < 2 || (padding && c != '=')) {
+            throw new IOException("Illegal base64 ending sequence");
+          }
+          if (padding || remainder == 3) {
+            return length(count);
+          }
+          padding = true;
+        } else if (c < 128 && values[c] >= 0) {
+          count++;
+        }
+      }
+    }
+    if (padding) {
+      throw new IOException("Illegal base64 ending sequence");
+    }
+    if (count % 4 == 1) {
+      throw new IOException("Base64 stream has one un-decoded dangling byte.");
+    }
+    return length(count);
+  }
+
+  private static long length(long count) {
+    return count / 4 * 3 + ((count % 4 == 0) ? 0 : count % 4 - 1);
+  }
+
+  private int value(int index) {
+    return values[chars.charAt(index)];
+  }
+
+  // Decodes the next 2 to 4 characters into group, and returns the number of bytes.
+  private int decodeGroup() {
+    int count = Math.min(4, end - position);
+    int bits = 0;
+    for (int i = 0; i < count; i++) {
+      bits |= value(position + i) << (18 - 6 * i);
+    }
+    position += count;
+    group[0] = (byte) (bits >> 16);
+    group[1] = (byte) (bits >> 8);
+    group[2] = (byte) bits;
+    return count - 1;
+  }
+
+  @Override
+  public int read() {
+    if (groupPosition == groupLength) {
+      if (position >= end) {
+        return -1;
+      }
+      groupLength = decodeGroup();
+      groupPosition = 0;
+    }
+    return group[groupPosition++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+    int start = off;
+    while (len > 0) {
+      if (groupPosition < groupLength) {
+        int n = Math.min(len, groupLength - groupPosition);
+        System.arraycopy(group, groupPosition, b, off, n);
+        groupPosition += n;
+        off += n;
+        len -= n;
+      } else if (position >= end) {
+        break;
+      } else if (len >= 3 && end - position >= 4) {
+        // whole groups, decoded straight into the caller's array
+        int groups = Math.min(len / 3, (end - position) / 4);
+        for (int i = 0; i < groups; i++) {
+          int bits =
+              value(position) << 18
+                  | value(position + 1) << 12
+                  | value(position + 2) << 6
+                  | value(position + 3);
+          b[off++] = (byte) (bits >> 16);
+          b[off++] = (byte) (bits >> 8);
+          b[off++] = (byte) bits;
+          position += 4;
+        }
+        len -= groups * 3;
+      } else {
+        groupLength = decodeGroup();
+        groupPosition = 0;
+      }
+    }
+    int n = off - start;
+    return (n == 0) ? -1 : n;
+  }
+
+  @Override
+  public int available() {
+    int remaining = end - position;
+    int decoded = remaining / 4 * 3 + ((remaining % 4 == 0) ? 0 : remaining % 4 - 1);
+    return (groupLength - groupPosition) + decoded;
+  }
+}
@@ -0,0 +1,127 @@
+// Base64EncodingInputStream.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that base64-encodes another stream as it is read, in the form RFC 2045
+ * requires for a Content-Transfer-Encoding: lines of 76 characters, separated by CRLF. There is
+ * no CRLF after the last line.
+ */
+public class Base64EncodingInputStream extends InputStream {
+  private static final byte[] alphabet =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+  private static final int LINE_INPUT = 57; // encodes to 76 characters
+  private static final int LINES_PER_BLOCK = 48;
+
+  private final InputStream in;
+  private final byte[] input = new byte[LINE_INPUT * LINES_PER_BLOCK];
+  private final byte[] output = new byte[(76 + 2) * LINES_PER_BLOCK];
+  private int outputPosition;
+  private int outputLength;
+  private boolean firstLine = true;
+  private boolean eof;
+
+  public Base64EncodingInputStream(final InputStream in) {
+    this.in = in;
+  }
+
+  /** Returns the number of bytes that this stream produces for a source of the given length. */
+  public static long encodedLength(long sourceLength) {
+    long lines = (sourceLength + LINE_INPUT - 1) / LINE_INPUT;
+    return 4 * ((sourceLength + 2) / 3) + 2 * Math.max(0, lines - 1);
+  }
+
+  // Reads up to one block of input, and encodes it into output.
+  private boolean fillOutput() throws IOException {
+    if (eof) {
+      return false;
+    }
+    int length = 0;
+    int n;
+    while (length < input.length && (n = in.read(input, length, input.length - length)) != -1) {
+      length += n;
+    }
+    if (length < input.length) {
+      eof = true;
+    }
+    int o = 0;
+    for (int lineStart = 0; lineStart < length; lineStart += LINE_INPUT) {
+      if (!firstLine) {
+        output[o++] = '\r';
+        output[o++] = '\n';
+      }
+      firstLine = false;
+      int lineEnd = Math.min(lineStart + LINE_INPUT, length);
+      int i = lineStart;
+      for (; i + 3 <= lineEnd; i += 3) {
+        int bits = (input[i] & 0xff) << 16 | (input[i + 1] & 0xff) << 8 | (input[i + 2] & 0xff);
+        output[o++] = alphabet[bits >>> 18];
+        output[o++] = alphabet[(bits >>> 12) & 0x3f];
+        output[o++] = alphabet[(bits >>> 6) & 0x3f];
+        output[o++] = alphabet[bits & 0x3f];
+      }
+      if (i < lineEnd) {
+        // only the final line can end with a partial group
+        int bits = (input[i] & 0xff) << 16 | ((i + 1 < lineEnd) ? (input[i + 1] & 0xff) << 8 : 0);
+        output[o++] = alphabet[bits >>> 18];
+        output[o++] = alphabet[(bits >>> 12) & 0x3f];
+        output[o++] = (i + 1 < lineEnd) ? alphabet[(bits >>> 6) & 0x3f] : (byte) '=';
+        output[o++] = '=';
+      }
+    }
+    outputPosition = 0;
+    outputLength = o;
+    return o > 0;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (outputPosition == outputLength && !fillOutput()) {
+      return -1;
+    }
+    return output[outputPosition++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int start = off;
+    while (len > 0) {
+      if (outputPosition == outputLength && !fillOutput()) {
+        break;
+      }
+      int n = Math.min(len, outputLength - outputPosition);
+      System.arraycopy(output, outputPosition, b, off, n);
+      outputPosition += n;
+      off += n;
+      len -= n;
+    }
+    int n = off - start;
+    return (n == 0) ? -1 : n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,88 @@
+// Crc32c.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), as used by iSCSI and by Google Cloud Storage, for Java 8, which lacks
+ * java.util.zip.CRC32C. It processes eight bytes per step, with eight lookup tables
+ * ("slicing-by-8").
+ */
+public class Crc32c implements Checksum {
+  private static final int POLYNOMIAL = 0x82F63B78; // reflected
+  private static final int[][] tables = new int[8][256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int k = 0; k < 8; k++) {
+        crc = ((crc & 1) != 0) ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      tables[0][i] = crc;
+    }
+    for (int i = 0; i < 256; i++) {
+      for (int t = 1; t < 8; t++) {
+        int previous = tables[t - 1][i];
+        tables[t][i] = (previous >>> 8) ^ tables[0][previous & 0xff];
+      }
+    }
+  }
+
+  private int crc = 0xFFFFFFFF;
+
+  @Override
+  public void update(int b) {
+    crc = (crc >>> 8) ^ tables[0][(crc ^ b) & 0xff];
+  }
+
+  @Override
+  public void update(byte[] b, int off, int len) {
+    int c = crc;
+    int end = off + len;
+    while (end - off >= 8) {
+      int lo = c ^ ((b[off] & 0xff)
+          | (b[off + 1] & 0xff) << 8
+          | (b[off + 2] & 0xff) << 16
+          | (b[off + 3] & 0xff) << 24);
+      c = tables[7][lo & 0xff]
+          ^ tables[6][(lo >>> 8) & 0xff]
+          ^ tables[5][(lo >>> 16) & 0xff]
+          ^ tables[4][lo >>> 24]
+          ^ tables[3][b[off + 4] & 0xff]
+          ^ tables[2][b[off + 5] & 0xff]
+          ^ tables[1][b[off + 6] & 0xff]
+          ^ tables[0][b[off + 7] & 0xff];
+      off += 8;
+    }
+    while (off < end) {
+      c = (c >>> 8) ^ tables[0][(c ^ b[off++]) & 0xff];
+    }
+    crc = c;
+  }
+
+  @Override
+  public long getValue() {
+    return (~crc) & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void reset() {
+    crc = 0xFFFFFFFF;
+  }
+}
@@ -0,0 +1,180 @@
+// QuotedPrintableDecodingInputStream.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that decodes quoted-printable (RFC 2045) content from another stream as it is
+ * read. Soft line breaks are removed, with either CRLF or a bare LF. An "=" that does not start
+ * a valid escape is passed through as is, as RFC 2045 suggests for robustness.
+ */
+public class QuotedPrintableDecodingInputStream extends InputStream {
+  private final InputStream in;
+  private final byte[] input = new byte[8192];
+  private int inputPosition;
+  private int inputLength;
+  private boolean eof;
+
+  public QuotedPrintableDecodingInputStream(final InputStream in) {
+    this.in = in;
+  }
+
+  // Returns the input byte at the given offset from the current position, or -1 past the end.
+  private int peek(int offset) throws IOException {
+    if (inputPosition + offset >= inputLength && !eof) {
+      System.arraycopy(input, inputPosition, input, 0, inputLength - inputPosition);
+      inputLength -= inputPosition;
+      inputPosition = 0;
+      while (inputLength <= offset && !eof) {
+        int n = in.read(input, inputLength, input.length - inputLength);
+        if (n == -1) {
+          eof = true;
+        } else {
+          inputLength += n;
+        }
+      }
+    }
+    return (inputPosition + offset < inputLength) ? (input[inputPosition + offset] & 0xff) : -1;
+  }
+
+  private static int hexValue(int c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    return -1;
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (true) {
+      int b = peek(0);
+      if (b != '=') {
+        if (b != -1) {
+          inputPosition++;
+        }
+        return b;
+      }
+      int c1 = peek(1);
+      if (c1 == '\n') {
+        inputPosition += 2; // soft line break
+        continue;
+      }
+      if (c1 == '\r' && peek(2) == '\n') {
+        inputPosition += 3; // soft line break
+        continue;
+      }
+      int high = hexValue(c1);
+      int low = hexValue(peek(2));
+      if (high < 0 || low < 0) {
+        inputPosition++;
+        return b;
+      }
+      inputPosition += 3;
+      return (high << 4) | low;
+    }
+  }
+
+  @Override
+  public int read(final byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int start = off;
+    int end = off + len;
+    while (off < end) {
+      // copy runs of literal bytes directly
+      if (inputPosition < inputLength) {
+        int limit = Math.min(inputLength, inputPosition + (end - off));
+        int i = inputPosition;
+        while (i < limit && input[i] != '=') {
+          i++;
+        }
+        int n = i - inputPosition;
+        if (n > 0) {
+          System.arraycopy(input, inputPosition, b, off, n);
+          inputPosition += n;
+          off += n;
+          continue;
+        }
+      }
+      int c = read();
+      if (c == -1) {
+        break;
+      }
+      b[off++] = (byte) c;
+    }
+    int n = off - start;
+    return (n == 0) ? -1 : n;
+  }
+
+  /**
+   * Returns the number of bytes that the encoded content decodes to, by the same rules as {@link
+   * #read()}, without decoding it. The stream is read to its end.
+   */
+  public static long decodedLength(final InputStream encoded) throws IOException {
+    byte[] scratch = new byte[8192];
+    long length = 0;
+    int pending = 0; // 1: "="; 2: "=" and a hex digit, or "=" and CR
+    boolean pendingCr = false;
+    int n;
+    while ((n = encoded.read(scratch)) != -1) {
+      for (int i = 0; i < n; i++) {
+        int c = scratch[i] & 0xff;
+        if (pending == 1) {
+          if (c == '\n') {
+            pending = 0; // soft line break
+            continue;
+          }
+          if (c == '\r' || hexValue(c) >= 0) {
+            pending = 2;
+            pendingCr = (c == '\r');
+            continue;
+          }
+          length++; // the "=", as is
+          pending = 0;
+        } else if (pending == 2) {
+          pending = 0;
+          if (pendingCr ? (c == '\n') : (hexValue(c) >= 0)) {
+            length += pendingCr ? 0 : 1; // a soft line break, or an escape
+            continue;
+          }
+          length += 2; // the "=" and the byte after it, as is
+        }
+        if (c == '=') {
+          pending = 1;
+        } else {
+          length++;
+        }
+      }
+    }
+    return length + pending;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,167 @@
+// QuotedPrintableEncodingInputStream.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that encodes another stream as quoted-printable (RFC 2045) as it is read. CRLF
+ * pairs in the source are kept as line breaks; any other CR or LF is encoded. Whitespace at the
+ * end of a line is encoded, and lines are kept to 76 characters with soft line breaks.
+ */
+public class QuotedPrintableEncodingInputStream extends InputStream {
+  private static final byte[] hex = "0123456789ABCDEF".getBytes();
+  private static final int MAX_LINE = 76;
+
+  private final InputStream in;
+  private final byte[] input = new byte[8192];
+  private int inputPosition;
+  private int inputLength;
+  private boolean eof;
+  private final byte[] output = new byte[8192];
+  private int outputPosition;
+  private int outputLength;
+  private int lineLength;
+
+  public QuotedPrintableEncodingInputStream(final InputStream in) {
+    this.in = in;
+  }
+
+  /** Reads the source to its end, and returns the number of bytes its encoding would take. */
+  public static long encodedLength(final InputStream source) throws IOException {
+    QuotedPrintableEncodingInputStream encoder = new QuotedPrintableEncodingInputStream(source);
+    long length = 0;
+    while (encoder.fillOutput()) {
+      length += encoder.outputLength;
+    }
+    return length;
+  }
+
+  // Returns the input byte at the given offset from the current position, or -1 past the end.
+  private int peek(int offset) throws IOException {
+    if (inputPosition + offset >= inputLength && !eof) {
+      System.arraycopy(input, inputPosition, input, 0, inputLength - inputPosition);
+      inputLength -= inputPosition;
+      inputPosition = 0;
+      while (inputLength <= offset && !eof) {
+        int n = in.read(input, inputLength, input.length - inputLength);
+        if (n == -1) {
+          eof = true;
+        } else {
+          inputLength += n;
+        }
+      }
+    }
+    return (inputPosition + offset < inputLength) ? (input[inputPosition + offset] & 0xff) : -1;
+  }
+
+  private void put(int b) {
+    output[outputLength++] = (byte) b;
+  }
+
+  private void softBreakIfNeeded(int tokenLength) {
+    // leave room for the "=" of a soft line break
+    if (lineLength + tokenLength > MAX_LINE - 1) {
+      put('=');
+      put('\r');
+      put('\n');
+      lineLength = 0;
+    }
+  }
+
+  private void putLiteral(int b) {
+    softBreakIfNeeded(1);
+    put(b);
+    lineLength++;
+  }
+
+  private void putEncoded(int b) {
+    softBreakIfNeeded(3);
+    put('=');
+    put(hex[b >>> 4]);
+    put(hex[b & 0x0f]);
+    lineLength += 3;
+  }
+
+  // Encodes input until the output is nearly full, or the input ends.
+  private boolean fillOutput() throws IOException {
+    outputPosition = 0;
+    outputLength = 0;
+    while (outputLength < output.length - 8) {
+      int b = peek(0);
+      if (b == -1) {
+        break;
+      }
+      if (b == '\r' && peek(1) == '\n') {
+        put('\r');
+        put('\n');
+        lineLength = 0;
+        inputPosition += 2;
+        continue;
+      }
+      if (b == ' ' || b == '\t') {
+        int next = peek(1);
+        if (next == -1 || (next == '\r' && peek(2) == '\n')) {
+          putEncoded(b);
+        } else {
+          putLiteral(b);
+        }
+      } else if (b >= 33 && b <= 126 && b != '=') {
+        putLiteral(b);
+      } else {
+        putEncoded(b);
+      }
+      inputPosition++;
+    }
+    return outputLength > 0;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (outputPosition == outputLength && !fillOutput()) {
+      return -1;
+    }
+    return output[outputPosition++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int start = off;
+    while (len > 0) {
+      if (outputPosition == outputLength && !fillOutput()) {
+        break;
+      }
+      int n = Math.min(len, outputLength - outputPosition);
+      System.arraycopy(output, outputPosition, b, off, n);
+      outputPosition += n;
+      off += n;
+      len -= n;
+    }
+    int n = off - start;
+    return (n == 0) ? -1 : n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -16,7 +16,6 @@
 package com.google.apigee.callouts;
 
 import com.apigee.flow.message.MessageContext;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
@@ -31,12 +30,25 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public abstract class CalloutBase {
-  protected static final String variableReferencePatternString = "(.*?)\\{([^\\{\\} ]+?)\\}(.*?)";
-  protected static final Pattern variableReferencePattern =
-      Pattern.compile(variableReferencePatternString);
   private static final String commonError = "^(.+?)[:;] (.+)$";
   private static final Pattern commonErrorPattern = Pattern.compile(commonError);
   protected Map<String, String> properties; // read-only
+  private final Map<String, PropertyTemplate> templates; // parsed once, from trimmed values
+  private final boolean debug;
+  private final ThreadLocal<RequestScope> requestScope = new ThreadLocal<RequestScope>();
+
+  // Resolved property values, and values parsed from them, for the duration of
+  // one execution. A callout instance may execute on several threads at once,
+  // so each thread has its own scope.
+  private static final class RequestScope {
+    private static final Object NULL = new Object();
+    final MessageContext msgCtxt;
+    final Map<String, Object> values = new HashMap<String, Object>();
+
+    RequestScope(MessageContext msgCtxt) {
+      this.msgCtxt = msgCtxt;
+    }
+  }
 
   public CalloutBase(Map properties) {
     // convert the untyped Map to a generic map
@@ -50,6 +62,38 @@ public abstract class CalloutBase {
       }
     }
     this.properties = Collections.unmodifiableMap(m);
+    Map<String, PropertyTemplate> t = new HashMap<String, PropertyTemplate>();
+    for (Map.Entry<String, String> entry : m.entrySet()) {
+      String value = entry.getValue().trim();
+      if (!value.equals("")) {
+        t.put(entry.getKey(), PropertyTemplate.compile(value));
+      }
+    }
+    this.templates = Collections.unmodifiableMap(t);
+    String wantDebug = m.get("debug");
+    this.debug = (wantDebug != null) && Boolean.parseBoolean(wantDebug);
+  }
+
+  // Within execute, wrap the work in beginRequest/endRequest, so that each
+  // property is resolved at most once per request.
+  protected void beginRequest(MessageContext msgCtxt) {
+    requestScope.set(new RequestScope(msgCtxt));
+  }
+
+  protected void endRequest() {
+    requestScope.remove();
+  }
+
+  private RequestScope getRequestScope(MessageContext msgCtxt) {
+    RequestScope scope = requestScope.get();
+    return (scope != null && scope.msgCtxt == msgCtxt) ? scope : null;
+  }
+
+  // true if the property is set and contains no variable references, so that
+  // it resolves to the same value on every request.
+  protected boolean isStaticProperty(String propName) {
+    PropertyTemplate template = templates.get(propName);
+    return (template != null) && template.isConstant();
   }
 
   public abstract String getVarnamePrefix();
@@ -70,8 +114,6 @@ public abstract class CalloutBase {
   }
 
   protected boolean getDebug() {
-    String wantDebug = (String) this.properties.get("debug");
-    boolean debug = (wantDebug != null) && Boolean.parseBoolean(wantDebug);
     return debug;
   }
 
@@ -83,72 +125,92 @@ public abstract class CalloutBase {
 
   protected String getSimpleRequiredProperty(String propName, MessageContext msgCtxt)
       throws Exception {
-    String value = (String) this.properties.get(propName);
+    String value = getSimpleOptionalProperty(propName, msgCtxt);
     if (value == null) {
       throw new IllegalStateException(
           String.format("configuration error: %s resolves to an empty string", propName));
     }
-    value = value.trim();
-    if (value.equals("")) {
-      throw new IllegalStateException(
-          String.format("configuration error: %s resolves to an empty string", propName));
-    }
-    value = resolvePropertyValue(value, msgCtxt);
-    if (value == null || value.equals("")) {
-      throw new IllegalStateException(
-          String.format("configuration error: %s resolves to an empty string", propName));
-    }
     return value;
   }
 
   protected String getSimpleOptionalProperty(String propName, MessageContext msgCtxt)
       throws Exception {
-    Object value = this.properties.get(propName);
-    if (value == null) {
+    PropertyTemplate template = templates.get(propName);
+    if (template == null) {
       return null;
     }
-    String v = (String) value;
-    v = v.trim();
-    if (v.equals("")) {
-      return null;
+    if (template.isConstant()) {
+      return template.resolve(msgCtxt);
     }
-    v = resolvePropertyValue(v, msgCtxt);
-    if (v == null || v.equals("")) {
-      return null;
+    RequestScope scope = getRequestScope(msgCtxt);
+    if (scope == null) {
+      return template.resolve(msgCtxt);
+    }
+    Object memo = scope.values.get(propName);
+    if (memo == null) {
+      String value = template.resolve(msgCtxt);
+      scope.values.put(propName, (value != null) ? value : RequestScope.NULL);
+      return value;
+    }
+    return (memo == RequestScope.NULL) ? null : (String) memo;
+  }
+
+  protected boolean getBooleanProperty(
+      String propName, boolean defaultValue, MessageContext msgCtxt) throws Exception {
+    RequestScope scope = getRequestScope(msgCtxt);
+    String key = "boolean:" + propName;
+    if (scope != null && scope.values.containsKey(key)) {
+      return (Boolean) scope.values.get(key);
+    }
+    String v = getSimpleOptionalProperty(propName, msgCtxt);
+    boolean value = (v == null) ? defaultValue : Boolean.parseBoolean(v.toLowerCase());
+    if (scope != null) {
+      scope.values.put(key, value);
+    }
+    return value;
+  }
+
+  protected long getLongProperty(String propName, long defaultValue, MessageContext msgCtxt)
+      throws Exception {
+    RequestScope scope = getRequestScope(msgCtxt);
+    String key = "long:" + propName;
+    if (scope != null && scope.values.containsKey(key)) {
+      return (Long) scope.values.get(key);
     }
-    return v;
-  }
-
-  // If the value of a property contains a pair of curlies,
-  // eg, {apiproxy.name}, then "resolve" the value by de-referencing
-  // the context variable whose name appears between the curlies.
-  // If the variable name is not known, then it returns a null.
-  protected String resolvePropertyValue(String spec, MessageContext msgCtxt) {
-    Matcher matcher = variableReferencePattern.matcher(spec);
-    StringBuffer sb = new StringBuffer();
-    while (matcher.find()) {
-      matcher.appendReplacement(sb, "");
-      sb.append(matcher.group(1));
-      Object v = msgCtxt.getVariable(matcher.group(2));
-      if (v != null) {
-        sb.append((String) v);
+    String v = getSimpleOptionalProperty(propName, msgCtxt);
+    long value = defaultValue;
+    if (v != null) {
+      try {
+        value = Long.parseLong(v.trim());
+      } catch (NumberFormatException exc1) {
+        throw new IllegalStateException(
+            String.format("configuration error: %s must be a number", propName));
       }
-      sb.append(matcher.group(3));
     }
-    matcher.appendTail(sb);
-    return (sb.length() > 0) ? sb.toString() : null;
+    if (scope != null) {
+      scope.values.put(key, value);
+    }
+    return value;
   }
 
-  public static byte[] streamToByteArray(InputStream is) throws IOException {
-    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-    int nRead;
-    byte[] data = new byte[1024];
-    while ((nRead = is.read(data, 0, data.length)) != -1) {
-      buffer.write(data, 0, nRead);
+  protected int getIntProperty(String propName, int defaultValue, MessageContext msgCtxt)
+      throws Exception {
+    long value = getLongProperty(propName, defaultValue, msgCtxt);
+    if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+      throw new IllegalStateException(
+          String.format("configuration error: %s is out of range", propName));
     }
+    return (int) value;
+  }
+
+  public static byte[] streamToByteArray(InputStream is) throws IOException {
+    return ContentBuffers.readAll(is, -1L);
+  }
 
-    buffer.flush();
-    return buffer.toByteArray();
+  // Use this when the length is known, eg from a content-length header, to
+  // allocate the result once, at the right size.
+  public static byte[] streamToByteArray(InputStream is, long expectedLength) throws IOException {
+    return ContentBuffers.readAll(is, expectedLength);
   }
 
   protected static String getStackTraceAsString(Throwable t) {
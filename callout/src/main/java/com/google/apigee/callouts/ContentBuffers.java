@@ -0,0 +1,180 @@
+// ContentBuffers.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads streams into byte arrays. When the length is known in advance, the array is allocated
+ * once at that size and returned without a trailing copy. Reads happen in large chunks.
+ *
+ * <p>For content that is needed only for the duration of one call, {@link #lease} reads into a
+ * buffer that is retained per thread and reused by the next call on that thread.
+ */
+public final class ContentBuffers {
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int MIN_CAPACITY = 8 * 1024;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  // Buffers larger than this are not kept after a lease is closed.
+  static final int MAX_POOLED_SIZE = 16 * 1024 * 1024;
+
+  private static final ThreadLocal<byte[]> pooled = new ThreadLocal<byte[]>();
+
+  private ContentBuffers() {}
+
+  /**
+   * A buffer holding content read from a stream. The valid bytes are {@code array()[0..length())}.
+   * Closing a lease makes the array available for reuse by a later lease on the same thread, so
+   * neither the array nor any view over it may be retained after close.
+   */
+  public static final class Lease implements AutoCloseable {
+    private byte[] array;
+    private int length;
+    private final boolean pool;
+
+    private Lease(byte[] array, boolean pool) {
+      this.array = array;
+      this.pool = pool;
+    }
+
+    public byte[] array() {
+      return array;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public InputStream openStream() {
+      return new ByteArrayInputStream(array, 0, length);
+    }
+
+    /** Returns a copy of the valid bytes, exactly sized. */
+    public byte[] toByteArray() {
+      return Arrays.copyOf(array, length);
+    }
+
+    @Override
+    public void close() {
+      if (pool && array != null && array.length <= MAX_POOLED_SIZE) {
+        pooled.set(array);
+      }
+      array = null;
+    }
+  }
+
+  /**
+   * Reads the stream to its end. If expectedLength is not negative, it is used to size the
+   * result, up to a bound; the stream may still turn out to be shorter or longer.
+   */
+  public static byte[] readAll(InputStream is, long expectedLength) throws IOException {
+    if (expectedLength < 0) {
+      expectedLength = is.available();
+    }
+    byte[] buffer = new byte[initialCapacity(expectedLength)];
+    int length = fill(is, buffer, 0);
+    if (length < buffer.length) {
+      return Arrays.copyOf(buffer, length); // shorter than expected
+    }
+    int b = is.read();
+    if (b == -1) {
+      return buffer; // exactly as expected; no trailing copy
+    }
+    buffer = grow(buffer, length + 1);
+    buffer[length++] = (byte) b;
+    return readRemaining(is, buffer, length, false).toByteArray();
+  }
+
+  /**
+   * Reads the stream to its end, into a buffer that may be reused by later leases on the same
+   * thread. Use this for content that does not outlive the caller, and close the lease when done.
+   */
+  public static Lease lease(InputStream is, long expectedLength) throws IOException {
+    return lease(is, expectedLength, true);
+  }
+
+  /**
+   * As {@link #lease(InputStream, long)}, but when pool is false, the array is freshly allocated
+   * and never reused, so it is safe for the caller to retain it, or views over it.
+   */
+  public static Lease lease(InputStream is, long expectedLength, boolean pool)
+      throws IOException {
+    if (expectedLength < 0) {
+      expectedLength = is.available();
+    }
+    int capacity = initialCapacity(expectedLength);
+    byte[] buffer = null;
+    if (pool) {
+      buffer = pooled.get();
+      pooled.remove(); // a nested lease on this thread gets its own buffer
+    }
+    if (buffer == null || buffer.length < capacity) {
+      buffer = new byte[capacity];
+    }
+    return readRemaining(is, buffer, 0, pool);
+  }
+
+  private static Lease readRemaining(InputStream is, byte[] buffer, int length, boolean pool)
+      throws IOException {
+    while (true) {
+      length = fill(is, buffer, length);
+      if (length < buffer.length) {
+        break;
+      }
+      int b = is.read();
+      if (b == -1) {
+        break;
+      }
+      buffer = grow(buffer, length + 1);
+      buffer[length++] = (byte) b;
+    }
+    Lease lease = new Lease(buffer, pool);
+    lease.length = length;
+    return lease;
+  }
+
+  // Reads into buffer at offset until the buffer is full or the stream ends.
+  private static int fill(InputStream is, byte[] buffer, int offset) throws IOException {
+    int n;
+    while (offset < buffer.length
+        && (n = is.read(buffer, offset, Math.min(CHUNK_SIZE, buffer.length - offset))) != -1) {
+      offset += n;
+    }
+    return offset;
+  }
+
+  // The expected length typically comes from a content-length header, which the
+  // client controls, so it is trusted only up to MAX_POOLED_SIZE; longer content
+  // grows the buffer as it actually arrives.
+  private static int initialCapacity(long expectedLength) {
+    return (expectedLength > 0) ? (int) Math.min(expectedLength, MAX_POOLED_SIZE) : MIN_CAPACITY;
+  }
+
+  private static byte[] grow(byte[] buffer, int minCapacity) {
+    if (minCapacity > MAX_ARRAY_SIZE) {
+      throw new IllegalStateException("content too large");
+    }
+    long doubled = Math.max((long) buffer.length * 2, MIN_CAPACITY);
+    int capacity = (int) Math.max(minCapacity, Math.min(doubled, MAX_ARRAY_SIZE));
+    return Arrays.copyOf(buffer, capacity);
+  }
+}
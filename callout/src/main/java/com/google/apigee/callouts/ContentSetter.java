@@ -22,7 +22,10 @@ import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.execution.spi.Execution;
 import com.apigee.flow.message.Message;
 import com.apigee.flow.message.MessageContext;
+import com.google.apigee.ByteBufferInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
@@ -56,6 +59,7 @@ public class ContentSetter extends CalloutBase implements Execution {
 
   public ExecutionResult execute(
       final MessageContext msgCtxt, final ExecutionContext execContext) {
+    beginRequest(msgCtxt);
     try {
       boolean mustSetDestination = false;
       String contentVar = getContentVar(msgCtxt);
@@ -68,16 +72,35 @@ public class ContentSetter extends CalloutBase implements Execution {
                 msgCtxt.getClientConnection().getMessageFactory().createRequest(msgCtxt));
       }
       Object content = msgCtxt.getVariable(contentVar);
-      byte[] contentBytes =
-          (content instanceof byte[])
-              ? (byte[]) content
-              : ((String) content).getBytes(StandardCharsets.UTF_8);
-      msgCtxt.setVariable(varName("payload_length"), contentBytes.length);
+      InputStream contentStream;
+      if (content instanceof ByteBuffer) {
+        // eg, a part from MultipartFormParser with content-as=bytebuffer; no copy
+        ByteBuffer buffer = (ByteBuffer) content;
+        msgCtxt.setVariable(varName("payload_length"), buffer.remaining());
+        contentStream = new ByteBufferInputStream(buffer);
+      } else if (content instanceof LazyContent) {
+        // eg, a part from MultipartFormParser with content-as=lazy; read, not
+        // materialized. A size that is not known is not counted, which would
+        // mean reading the content twice, so payload_length is not set.
+        LazyContent lazy = (LazyContent) content;
+        long size = lazy.knownSize();
+        if (size >= 0 && size <= Integer.MAX_VALUE) {
+          msgCtxt.setVariable(varName("payload_length"), (int) size);
+        }
+        contentStream = lazy.openStream();
+      } else {
+        byte[] contentBytes =
+            (content instanceof byte[])
+                ? (byte[]) content
+                : ((String) content).getBytes(StandardCharsets.UTF_8);
+        msgCtxt.setVariable(varName("payload_length"), contentBytes.length);
+        contentStream = new ByteArrayInputStream(contentBytes);
+      }
       String contentType = getContentType(msgCtxt);
       if (contentType != null) {
         message.setHeader("content-type", contentType);
       }
-      message.setContent(new ByteArrayInputStream(contentBytes));
+      message.setContent(contentStream);
       if (mustSetDestination) {
         msgCtxt.setVariable(destination, message);
       }
@@ -92,6 +115,8 @@ public class ContentSetter extends CalloutBase implements Execution {
       }
       setExceptionVariables(e, msgCtxt);
       return ExecutionResult.ABORT;
+    } finally {
+      endRequest();
     }
   }
 }
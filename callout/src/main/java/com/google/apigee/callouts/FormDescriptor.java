@@ -0,0 +1,176 @@
+// FormDescriptor.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.json.JavaxJson;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiled form of the descriptor for MultipartFormCreator: an immutable list of part
+ * specifications, in the order they appear in the descriptor JSON. Compiling a descriptor once
+ * means that creating a form needs only to read the content variables and assemble bytes.
+ */
+public final class FormDescriptor {
+  private static final int MAX_CACHED = 64;
+  private static final List<String> knownTransferEncodings =
+      Arrays.asList("base64", "quoted-printable", "7bit", "8bit", "binary");
+
+  // Descriptors that contain variable references resolve to different JSON on
+  // different requests. The compiled forms of the most recently used are kept.
+  private static final class DescriptorCache extends LinkedHashMap<String, FormDescriptor> {
+    private static final long serialVersionUID = 1L;
+
+    DescriptorCache() {
+      super(16, 0.75f, true); // in access order
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FormDescriptor> eldest) {
+      return size() > MAX_CACHED;
+    }
+  }
+
+  private static final Map<String, FormDescriptor> cache = new DescriptorCache();
+
+  private final List<PartSpec> parts;
+
+  public static final class PartSpec {
+    private final String name;
+    private final String contentVar;
+    private final String contentType;
+    private final String fileName;
+    private final String transferEncoding;
+    private final boolean applyTransferEncoding;
+    private final boolean wantBase64Decode;
+
+    private PartSpec(String name, Map<String, Object> definition) {
+      this.name = name;
+      this.contentVar = getString(definition, name, "content-var");
+      this.contentType = getString(definition, name, "content-type");
+      String fileName = getString(definition, name, "file-name");
+      this.fileName = (fileName != null && !fileName.equals("")) ? fileName : null;
+      this.transferEncoding = getString(definition, name, "transfer-encoding");
+      this.applyTransferEncoding = getBoolean(definition, name, "apply-transfer-encoding");
+      if (applyTransferEncoding && !isKnownTransferEncoding(transferEncoding)) {
+        throw new IllegalStateException(
+            String.format(
+                "descriptor: transfer-encoding for part %s must be one of %s"
+                    + " when apply-transfer-encoding is true",
+                name, String.join(", ", knownTransferEncodings)));
+      }
+      this.wantBase64Decode = getBoolean(definition, name, "want-b64-decode");
+    }
+
+    private static boolean isKnownTransferEncoding(String encoding) {
+      return encoding != null && knownTransferEncodings.contains(encoding.toLowerCase());
+    }
+
+    private static boolean getBoolean(Map<String, Object> definition, String part, String key) {
+      Object value = definition.get(key);
+      if (value != null && !(value instanceof Boolean)) {
+        throw new IllegalStateException(
+            String.format("descriptor: %s for part %s must be a boolean", key, part));
+      }
+      return Boolean.TRUE.equals(value);
+    }
+
+    private static String getString(Map<String, Object> definition, String part, String key) {
+      Object value = definition.get(key);
+      if (value != null && !(value instanceof String)) {
+        throw new IllegalStateException(
+            String.format("descriptor: %s for part %s must be a string", key, part));
+      }
+      return (String) value;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getContentVar() {
+      return contentVar;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    /** Null if the descriptor specifies no file-name, or an empty one. */
+    public String getFileName() {
+      return fileName;
+    }
+
+    public String getTransferEncoding() {
+      return transferEncoding;
+    }
+
+    /**
+     * Whether the creator should encode the content with the transfer-encoding. When false, the
+     * content is assumed to be encoded already, and the transfer-encoding is only a label.
+     */
+    public boolean getApplyTransferEncoding() {
+      return applyTransferEncoding;
+    }
+
+    public boolean getWantBase64Decode() {
+      return wantBase64Decode;
+    }
+  }
+
+  private FormDescriptor(List<PartSpec> parts) {
+    this.parts = Collections.unmodifiableList(parts);
+  }
+
+  public List<PartSpec> getParts() {
+    return parts;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static FormDescriptor compile(String json) {
+    Map<String, Object> map = JavaxJson.fromJson(json, Map.class);
+    List<PartSpec> parts = new ArrayList<PartSpec>();
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      if (!(entry.getValue() instanceof Map)) {
+        throw new IllegalStateException(
+            String.format("descriptor: part %s must be a JSON object", entry.getKey()));
+      }
+      parts.add(new PartSpec(entry.getKey(), (Map<String, Object>) entry.getValue()));
+    }
+    return new FormDescriptor(parts);
+  }
+
+  /** Like {@link #compile}, but reuses the result for a descriptor seen recently. */
+  public static FormDescriptor compileCached(String json) {
+    synchronized (cache) {
+      FormDescriptor descriptor = cache.get(json);
+      if (descriptor != null) {
+        return descriptor;
+      }
+    }
+    FormDescriptor descriptor = compile(json);
+    synchronized (cache) {
+      cache.put(json, descriptor);
+    }
+    return descriptor;
+  }
+}
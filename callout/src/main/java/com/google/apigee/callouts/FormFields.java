@@ -0,0 +1,73 @@
+// FormFields.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The simple (non-file) fields of a form, collected as the parts are read. A field that appears
+ * once has a String value; a field whose name repeats has a List of its values, in form order.
+ */
+final class FormFields {
+  private final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+
+  /**
+   * Returns the charset named by the content-type of a field part, or UTF-8, which is what
+   * browsers send when the part has no content-type.
+   */
+  static Charset charsetOf(String contentType) {
+    if (contentType != null) {
+      for (String param : contentType.split(";")) {
+        String[] pair = param.split("=", 2);
+        if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+          try {
+            return Charset.forName(pair[1].trim().replace("\"", ""));
+          } catch (IllegalArgumentException exc1) {
+            break; // unsupported or illegal; use the default
+          }
+        }
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  @SuppressWarnings("unchecked")
+  void add(String name, String value) {
+    Object existing = fields.get(name);
+    if (existing == null) {
+      fields.put(name, value);
+    } else if (existing instanceof List) {
+      ((List<String>) existing).add(value);
+    } else {
+      List<String> values = new ArrayList<String>();
+      values.add((String) existing);
+      values.add(value);
+      fields.put(name, values);
+    }
+  }
+
+  /** The fields by name, in the order each name first appeared. */
+  Map<String, Object> asMap() {
+    return fields;
+  }
+}
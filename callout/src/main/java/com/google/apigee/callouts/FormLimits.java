@@ -0,0 +1,128 @@
+// FormLimits.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import org.apache.commons.fileupload.FileItemHeaders;
+import org.apache.commons.fileupload.util.LimitedInputStream;
+
+/**
+ * Limits on the size and shape of an inbound form, checked as the form is read, so that the
+ * parse stops as soon as one is crossed. A negative limit means no limit. Each violation fails
+ * with its own message.
+ */
+final class FormLimits {
+  private final long maxBodySize;
+  private final long maxPartSize;
+  private final int maxPartCount;
+  private final int maxHeaderSize;
+
+  FormLimits(long maxBodySize, long maxPartSize, int maxPartCount, int maxHeaderSize) {
+    this.maxBodySize = maxBodySize;
+    this.maxPartSize = maxPartSize;
+    this.maxPartCount = maxPartCount;
+    this.maxHeaderSize = maxHeaderSize;
+  }
+
+  private static IllegalStateException bodyTooLarge(long max) {
+    return new IllegalStateException(
+        String.format("body exceeds max-body-size of %d bytes", max));
+  }
+
+  private static IllegalStateException partTooLarge(long max) {
+    return new IllegalStateException(
+        String.format("part exceeds max-part-size of %d bytes", max));
+  }
+
+  /**
+   * Fails at once if the declared content length is over the limit; otherwise returns the body
+   * stream, limited so that reading fails at the first byte past the limit.
+   */
+  InputStream limitBody(InputStream in, long contentLength) {
+    if (maxBodySize < 0) {
+      return in;
+    }
+    if (contentLength > maxBodySize) {
+      throw bodyTooLarge(maxBodySize);
+    }
+    return new LimitedInputStream(in, maxBodySize) {
+      @Override
+      protected void raiseError(long max, long count) {
+        throw bodyTooLarge(max);
+      }
+    };
+  }
+
+  /** Returns the part content stream, limited so that reading fails past the limit. */
+  InputStream limitPart(InputStream in) {
+    if (maxPartSize < 0) {
+      return in;
+    }
+    return new LimitedInputStream(in, maxPartSize) {
+      @Override
+      protected void raiseError(long max, long count) {
+        throw partTooLarge(max);
+      }
+    };
+  }
+
+  void checkPartSize(long size) {
+    if (maxPartSize >= 0 && size > maxPartSize) {
+      throw partTooLarge(maxPartSize);
+    }
+  }
+
+  /** Checks the number of parts seen so far, including the one just found. */
+  void checkPartCount(int count) {
+    if (maxPartCount >= 0 && count > maxPartCount) {
+      throw new IllegalStateException(
+          String.format("form exceeds max-part-count of %d parts", maxPartCount));
+    }
+  }
+
+  /**
+   * Checks the size in bytes of a part's header block, as "Name: value" lines plus the blank line.
+   * fileupload decodes header bytes with the platform charset, when no header encoding is set, so
+   * encoding them back with that charset recovers their size on the wire: a UTF-8 filename counts
+   * its bytes, not its characters, as in the native scanner.
+   */
+  void checkHeaders(FileItemHeaders headers) {
+    if (maxHeaderSize < 0 || headers == null) {
+      return;
+    }
+    Charset charset = Charset.defaultCharset();
+    long size = 2;
+    for (Iterator<String> names = headers.getHeaderNames(); names.hasNext(); ) {
+      String name = names.next();
+      int nameSize = name.getBytes(charset).length;
+      for (Iterator<String> values = headers.getHeaders(name); values.hasNext(); ) {
+        size += nameSize + 2 + values.next().getBytes(charset).length + 2;
+      }
+    }
+    if (size > maxHeaderSize) {
+      throw new IllegalStateException(
+          String.format("part headers exceed max-header-size of %d bytes", maxHeaderSize));
+    }
+  }
+
+  void apply(MultipartScanner scanner) {
+    scanner.setMaxHeaderSize(maxHeaderSize);
+  }
+}
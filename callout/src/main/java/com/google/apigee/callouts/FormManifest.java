@@ -0,0 +1,163 @@
+// FormManifest.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+
+/**
+ * The file items of a parsed form, in one object. The JSON form, which describes each item but
+ * not its content, is rendered on the first call to {@link #toJson}, or to {@link #toString},
+ * which is what a message template gets; it is then kept. It includes the digests of each item,
+ * if any were computed.
+ */
+public final class FormManifest {
+  public static final class Item {
+    private final int index;
+    private final String name;
+    private final String fileName;
+    private final String contentType;
+    private final long size;
+    private final Object content;
+    private final Map<String, String> digests;
+
+    Item(
+        int index,
+        String name,
+        String fileName,
+        String contentType,
+        long size,
+        Object content,
+        Map<String, String> digests) {
+      this.index = index;
+      this.name = name;
+      this.fileName = fileName;
+      this.contentType = contentType;
+      this.size = size;
+      this.content = content;
+      this.digests =
+          (digests != null)
+              ? Collections.unmodifiableMap(digests)
+              : Collections.<String, String>emptyMap();
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    /** The name of the part in the form, which may be null. */
+    public String getName() {
+      return name;
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /** As for item_content_N; null with metadata-only. */
+    public Object getContent() {
+      return content;
+    }
+
+    /** Lowercase hex, keyed by digest name, for example sha256; empty if none were computed. */
+    public Map<String, String> getDigests() {
+      return digests;
+    }
+  }
+
+  private final List<Item> items = new ArrayList<Item>();
+  private String json;
+
+  void add(
+      String name,
+      String fileName,
+      String contentType,
+      long size,
+      Object content,
+      Map<String, String> digests) {
+    items.add(new Item(items.size(), name, fileName, contentType, size, content, digests));
+  }
+
+  public int size() {
+    return items.size();
+  }
+
+  public Item getItem(int index) {
+    return items.get(index);
+  }
+
+  public List<Item> getItems() {
+    return Collections.unmodifiableList(items);
+  }
+
+  private static void addString(JsonObjectBuilder builder, String key, String value) {
+    if (value != null) {
+      builder.add(key, value);
+    } else {
+      builder.addNull(key);
+    }
+  }
+
+  public synchronized String toJson() {
+    if (json == null) {
+      JsonArrayBuilder array = Json.createArrayBuilder();
+      for (Item item : items) {
+        JsonObjectBuilder object = Json.createObjectBuilder().add("index", item.index);
+        addString(object, "name", item.name);
+        addString(object, "filename", item.fileName);
+        addString(object, "content-type", item.contentType);
+        object.add("size", item.size);
+        if (!item.digests.isEmpty()) {
+          JsonObjectBuilder digests = Json.createObjectBuilder();
+          for (Map.Entry<String, String> entry : item.digests.entrySet()) {
+            digests.add(entry.getKey(), entry.getValue());
+          }
+          object.add("digests", digests);
+        }
+        array.add(object);
+      }
+      StringWriter writer = new StringWriter();
+      try (JsonWriter jsonWriter = Json.createWriter(writer)) {
+        jsonWriter.writeObject(
+            Json.createObjectBuilder().add("itemcount", items.size()).add("items", array).build());
+      }
+      json = writer.toString();
+    }
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return toJson();
+  }
+}
@@ -0,0 +1,136 @@
+// LazyContent.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.ByteBufferInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Content that is copied into a byte array only when something asks for the bytes, and then only
+ * once. Until then it is a reference to where the content already lives: a region of a buffered
+ * message, a mapped file, or a stream source that decodes it. {@link #openStream} and, for
+ * content that needs no decoding, {@link #asByteBuffer} read the content without materializing
+ * it at all.
+ */
+public final class LazyContent {
+  /** Opens a new stream over the content, from the beginning, each time it is called. */
+  public interface Source {
+    InputStream open() throws IOException;
+  }
+
+  private final Source source;
+  private final ByteBuffer buffer; // the content itself, when it needs no decoding
+  private long size;
+  private byte[] bytes;
+
+  /** Content that is exactly the remaining bytes of the buffer. */
+  public LazyContent(final ByteBuffer buffer) {
+    this.buffer = buffer.asReadOnlyBuffer();
+    this.source = () -> new ByteBufferInputStream(this.buffer);
+    this.size = buffer.remaining();
+  }
+
+  /** Content read from the source. If size is negative, it is counted when first needed. */
+  public LazyContent(final Source source, final long size) {
+    this.buffer = null;
+    this.source = source;
+    this.size = size;
+  }
+
+  /** Content that is already materialized. */
+  public LazyContent(final byte[] bytes) {
+    this.buffer = null;
+    this.source = () -> new ByteArrayInputStream(bytes);
+    this.size = bytes.length;
+    this.bytes = bytes;
+  }
+
+  /**
+   * The size of the content in bytes. For content of unknown size, this reads through the source
+   * once, without retaining what it reads; use {@link #knownSize} to avoid that.
+   */
+  public synchronized long size() {
+    if (size < 0) {
+      byte[] scratch = new byte[8192];
+      long count = 0;
+      try (InputStream is = source.open()) {
+        int n;
+        while ((n = is.read(scratch)) != -1) {
+          count += n;
+        }
+      } catch (IOException exc1) {
+        throw new UncheckedIOException(exc1);
+      }
+      size = count;
+    }
+    return size;
+  }
+
+  /** The size of the content in bytes, if it is known without reading it; otherwise -1. */
+  public synchronized long knownSize() {
+    return (size < 0) ? -1L : size;
+  }
+
+  public synchronized boolean isMaterialized() {
+    return bytes != null;
+  }
+
+  /** Returns the content, copying or decoding it on the first call. */
+  public synchronized byte[] getBytes() {
+    if (bytes == null) {
+      if (buffer != null) {
+        bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+      } else {
+        try (InputStream is = source.open()) {
+          bytes = ContentBuffers.readAll(is, size);
+        } catch (IOException exc1) {
+          throw new UncheckedIOException(exc1);
+        }
+        size = bytes.length;
+      }
+    }
+    return bytes;
+  }
+
+  /** Returns a read-only buffer over the content, which is materialized only if it must be. */
+  public ByteBuffer asByteBuffer() {
+    if (buffer != null) {
+      return buffer.duplicate();
+    }
+    return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+  }
+
+  /** Returns a stream over the content, which does not materialize it. */
+  public synchronized InputStream openStream() throws IOException {
+    return (bytes != null) ? new ByteArrayInputStream(bytes) : source.open();
+  }
+
+  /** Describes the content, without reading it. */
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "LazyContent[size=%s, materialized=%b]",
+        (size < 0) ? "unknown" : size + "",
+        bytes != null);
+  }
+}
@@ -15,20 +15,21 @@
 
 package com.google.apigee.callouts;
 
-import com.google.apigee.json.JavaxJson;
 import com.apigee.flow.execution.ExecutionContext;
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.execution.spi.Execution;
 import com.apigee.flow.message.Message;
 import com.apigee.flow.message.MessageContext;
 import java.io.ByteArrayInputStream;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import org.jclouds.io.Payload;
+import org.jclouds.io.payloads.Base64DecodingPayload;
 import org.jclouds.io.payloads.ByteArrayPayload;
+import org.jclouds.io.payloads.ByteBufferPayload;
 import org.jclouds.io.payloads.MultipartForm;
 import org.jclouds.io.payloads.Part;
 
@@ -36,8 +37,13 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
   private static final String varprefix = "mpf_";
   private static final boolean wantStringDefault = true;
 
+  // A descriptor without variable references is compiled once, on first use.
+  private final boolean descriptorIsStatic;
+  private volatile FormDescriptor staticDescriptor;
+
   public MultipartFormCreator(Map properties) {
     super(properties);
+    this.descriptorIsStatic = isStaticProperty("descriptor");
   }
 
   public String getVarnamePrefix() {
@@ -45,11 +51,11 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
   }
 
   private boolean getWantDecode(MessageContext msgCtxt) throws Exception {
-    String wantDecode = getSimpleOptionalProperty("want-base64-decode", msgCtxt);
-    if (wantDecode == null) {
-      return false;
-    }
-    return Boolean.parseBoolean(wantDecode.toLowerCase());
+    return getBooleanProperty("want-base64-decode", false, msgCtxt);
+  }
+
+  private boolean getStreaming(MessageContext msgCtxt) throws Exception {
+    return getBooleanProperty("streaming", false, msgCtxt);
   }
 
   private String getDestination(MessageContext msgCtxt) throws Exception {
@@ -64,6 +70,18 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
     return getSimpleOptionalProperty("descriptor", msgCtxt);
   }
 
+  private FormDescriptor getFormDescriptor(String descriptor) {
+    if (!descriptorIsStatic) {
+      return FormDescriptor.compileCached(descriptor);
+    }
+    FormDescriptor compiled = staticDescriptor;
+    if (compiled == null) {
+      compiled = FormDescriptor.compile(descriptor);
+      staticDescriptor = compiled;
+    }
+    return compiled;
+  }
+
   private String getPartContentVar(MessageContext msgCtxt) throws Exception {
     return getSimpleRequiredProperty("contentVar", msgCtxt);
   }
@@ -80,6 +98,22 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
     return getSimpleRequiredProperty("part-name", msgCtxt);
   }
 
+  private void setFormContent(MessageContext msgCtxt, Message message, MultipartForm mpf)
+      throws Exception {
+    if (getStreaming(msgCtxt)) {
+      // The form is assembled lazily, part by part, as the message content is
+      // read. The length is known up front from the part metadata, and may
+      // exceed the range of an int, so it is published as a long, in either mode.
+      long length = mpf.getContentMetadata().getContentLength();
+      msgCtxt.setVariable(varName("payload_length"), length);
+      message.setContent(mpf.openStream());
+    } else {
+      byte[] payload = mpf.toByteArray();
+      msgCtxt.setVariable(varName("payload_length"), (long) payload.length);
+      message.setContent(new ByteArrayInputStream(payload));
+    }
+  }
+
   private ExecutionResult execute_20200309(
       final MessageContext msgCtxt, final ExecutionContext execContext) {
     // original implementation, creates a form with a single part
@@ -87,12 +121,15 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
       String contentVar = getPartContentVar(msgCtxt);
       boolean mustSetDestination = false;
       String content = (String) msgCtxt.getVariable(contentVar);
-      byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+      Payload payload;
       boolean wantDecode = getWantDecode(msgCtxt);
       if (wantDecode) {
-        byte[] decodedBytes = Base64.getDecoder().decode(contentBytes);
-        msgCtxt.setVariable(varName("decoded_length"), decodedBytes.length);
-        contentBytes = decodedBytes;
+        // decoded as the form is written
+        payload = new Base64DecodingPayload(content);
+        msgCtxt.setVariable(
+            varName("decoded_length"), payload.getContentMetadata().getContentLength().intValue());
+      } else {
+        payload = new ByteArrayPayload(content.getBytes(StandardCharsets.UTF_8));
       }
 
       String boundary = "--------------------" + randomAlphanumeric(14);
@@ -109,19 +146,14 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
 
       Part.PartOptions partOptions = new Part.PartOptions();
       partOptions.contentType(getPartContentType(msgCtxt));
-      if (getPartFileName(msgCtxt) != null) {
-        partOptions.filename(getPartFileName(msgCtxt));
+      String fileName = getPartFileName(msgCtxt);
+      if (fileName != null) {
+        partOptions.filename(fileName);
       }
-      Part filepart =
-          Part.create(
-              getPartName(msgCtxt),
-              new ByteArrayPayload((byte[]) contentBytes),
-              partOptions);
+      Part filepart = Part.create(getPartName(msgCtxt), payload, partOptions);
 
       MultipartForm mpf = new MultipartForm(boundary, new Part[] {filepart});
-      byte[] payload = streamToByteArray(mpf.openStream());
-      msgCtxt.setVariable(varName("payload_length"), payload.length);
-      message.setContent(new ByteArrayInputStream(payload));
+      setFormContent(msgCtxt, message, mpf);
       if (mustSetDestination) {
         msgCtxt.setVariable(destination, message);
       }
@@ -140,6 +172,7 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
   }
 
   public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    beginRequest(msgCtxt);
     try {
       String descriptor = getDescriptor(msgCtxt);
       if (descriptor == null) {
@@ -147,9 +180,7 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
       }
 
       boolean mustSetDestination = false;
-      @SuppressWarnings("unchecked")
-      Map<String, Object> map = JavaxJson.fromJson(descriptor, Map.class);
-      //Map<String, Object> map = gson.fromJson(new StringReader(), Map.class);
+      FormDescriptor formDescriptor = getFormDescriptor(descriptor);
       // eg
       // {
       //   "part1.txt" : {
@@ -177,44 +208,47 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
       message.setHeader("content-type", "multipart/form-data;boundary=" + boundary);
 
       List<Part> parts = new ArrayList<Part>();
-      for (Map.Entry<String, Object> entry : map.entrySet()) {
-        String partName = entry.getKey();
-        @SuppressWarnings("unchecked")
-        Map<String, Object> partDefinition = (Map<String, Object>) entry.getValue();
-
-        Object partContent = msgCtxt.getVariable((String) partDefinition.get("content-var"));
+      for (FormDescriptor.PartSpec partSpec : formDescriptor.getParts()) {
+        String partName = partSpec.getName();
+        Object partContent = msgCtxt.getVariable(partSpec.getContentVar());
+        Payload payload;
         if (partContent instanceof String) {
-          Boolean wantDecode = (Boolean) partDefinition.get("want-b64-decode");
           String s = (String) partContent;
-          partContent = s.getBytes(StandardCharsets.UTF_8);
-          if (wantDecode) {
-            partContent = Base64.getDecoder().decode((byte[]) partContent);
+          if (partSpec.getWantBase64Decode()) {
+            // decoded as the form is written
+            payload = new Base64DecodingPayload(s);
+          } else {
+            payload = new ByteArrayPayload(s.getBytes(StandardCharsets.UTF_8));
           }
-        } else if (!(partContent instanceof byte[])) {
+        } else if (partContent instanceof byte[]) {
+          payload = new ByteArrayPayload((byte[]) partContent);
+        } else if (partContent instanceof ByteBuffer) {
+          // eg, a part from MultipartFormParser with content-as=bytebuffer
+          payload = new ByteBufferPayload((ByteBuffer) partContent);
+        } else if (partContent instanceof LazyContent) {
+          // eg, a part from MultipartFormParser with content-as=lazy
+          payload = new ByteBufferPayload(((LazyContent) partContent).asByteBuffer());
+        } else {
           throw new IllegalStateException(String.format("part %s not of supported type", partName));
         }
 
         Part.PartOptions partOptions =
-          new Part.PartOptions().contentType((String) partDefinition.get("content-type"));
-        if (partDefinition.get("file-name") != null && !partDefinition.get("file-name").equals("")) {
-          partOptions.filename((String) partDefinition.get("file-name"));
+            new Part.PartOptions().contentType(partSpec.getContentType());
+        if (partSpec.getFileName() != null) {
+          partOptions.filename(partSpec.getFileName());
         }
 
-        if (partDefinition.get("transfer-encoding") != null) {
-          partOptions.transferEncoding((String) partDefinition.get("transfer-encoding"));
+        if (partSpec.getTransferEncoding() != null) {
+          partOptions
+              .transferEncoding(partSpec.getTransferEncoding())
+              .applyTransferEncoding(partSpec.getApplyTransferEncoding());
         }
 
-        parts.add(
-            Part.create(
-                partName,
-                new ByteArrayPayload((byte[]) partContent),
-                partOptions));
+        parts.add(Part.create(partName, payload, partOptions));
       }
 
       MultipartForm mpf = new MultipartForm(boundary, parts);
-      byte[] payload = streamToByteArray(mpf.openStream());
-      msgCtxt.setVariable(varName("payload_length"), payload.length);
-      message.setContent(new ByteArrayInputStream(payload));
+      setFormContent(msgCtxt, message, mpf);
       if (mustSetDestination) {
         msgCtxt.setVariable(destination, message);
       }
@@ -230,6 +264,8 @@ public class MultipartFormCreator extends CalloutBase implements Execution {
       }
       setExceptionVariables(e, msgCtxt);
       return ExecutionResult.ABORT;
+    } finally {
+      endRequest();
     }
   }
 }
@@ -23,19 +23,47 @@ import com.apigee.flow.execution.spi.Execution;
 import com.apigee.flow.message.Message;
 import com.apigee.flow.message.MessageContext;
 import com.google.apigee.AdapterHttpServletRequest;
+import com.google.apigee.Base64DecodingInputStream;
+import com.google.apigee.ByteBufferInputStream;
+import com.google.apigee.QuotedPrintableDecodingInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileItemFactory;
+import org.apache.commons.fileupload.FileItemHeaders;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.disk.DiskFileItem;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 
 public class MultipartFormParser extends CalloutBase implements Execution {
   private static final String varprefix = "mpf_";
   private static final boolean wantStringDefault = true;
+  private static final int DEFAULT_SIZE_THRESHOLD = 5 * 1024 * 1024;
+  private static final int MAX_PARALLELISM = 8;
+  private static volatile ForkJoinPool extractionPool;
 
   public MultipartFormParser(Map properties) {
     super(properties);
@@ -53,49 +81,891 @@ public class MultipartFormParser extends CalloutBase implements Execution {
     return source;
   }
 
-  private static List<FileItem> parseForm(final byte[] data, final String contentType)
+  private boolean getStreaming(MessageContext msgCtxt) throws Exception {
+    return getBooleanProperty("streaming", false, msgCtxt);
+  }
+
+  private boolean getWantNativeParser(MessageContext msgCtxt) throws Exception {
+    String parser = getSimpleOptionalProperty("parser", msgCtxt);
+    if (parser == null || parser.equalsIgnoreCase("fileupload")) {
+      return false;
+    }
+    if (parser.equalsIgnoreCase("native")) {
+      return true;
+    }
+    throw new IllegalStateException(String.format("unsupported parser: %s", parser));
+  }
+
+  private String getContentAs(MessageContext msgCtxt) throws Exception {
+    String contentAs = getSimpleOptionalProperty("content-as", msgCtxt);
+    if (contentAs == null || contentAs.equalsIgnoreCase("bytes")) {
+      return "bytes";
+    }
+    if (contentAs.equalsIgnoreCase("bytebuffer") || contentAs.equalsIgnoreCase("lazy")) {
+      return contentAs.toLowerCase();
+    }
+    throw new IllegalStateException(String.format("unsupported content-as: %s", contentAs));
+  }
+
+  private boolean getWantByteBuffers(MessageContext msgCtxt) throws Exception {
+    return getContentAs(msgCtxt).equals("bytebuffer");
+  }
+
+  private boolean getWantLazyContent(MessageContext msgCtxt) throws Exception {
+    return getContentAs(msgCtxt).equals("lazy");
+  }
+
+  private int getSizeThreshold(MessageContext msgCtxt) throws Exception {
+    int threshold = getIntProperty("size-threshold", DEFAULT_SIZE_THRESHOLD, msgCtxt);
+    if (threshold < 0) {
+      throw new IllegalStateException("configuration error: size-threshold must not be negative");
+    }
+    return threshold;
+  }
+
+  private File getSpillDirectory(MessageContext msgCtxt) throws Exception {
+    String directory = getSimpleOptionalProperty("spill-directory", msgCtxt);
+    if (directory == null) {
+      return null; // the system temp directory
+    }
+    File file = new File(directory);
+    if (!file.isDirectory()) {
+      throw new IllegalStateException(
+          String.format("configuration error: spill-directory %s is not a directory", directory));
+    }
+    return file;
+  }
+
+  private int getSpillPoolSize(MessageContext msgCtxt) throws Exception {
+    int size = getIntProperty("spill-pool-size", 0, msgCtxt);
+    if (size < 0) {
+      throw new IllegalStateException("configuration error: spill-pool-size must not be negative");
+    }
+    return size;
+  }
+
+  private boolean getDecodeTransferEncoding(MessageContext msgCtxt) throws Exception {
+    return getBooleanProperty("decode-transfer-encoding", false, msgCtxt);
+  }
+
+  private boolean getMetadataOnly(MessageContext msgCtxt) throws Exception {
+    return getBooleanProperty("metadata-only", false, msgCtxt);
+  }
+
+  private int getParallelThreshold(MessageContext msgCtxt) throws Exception {
+    return getIntProperty("parallel-threshold", 0, msgCtxt);
+  }
+
+  private String getIndexVar(MessageContext msgCtxt) throws Exception {
+    return getSimpleOptionalProperty("index-var", msgCtxt);
+  }
+
+  private boolean getWantFields(MessageContext msgCtxt) throws Exception {
+    return getBooleanProperty("want-fields", false, msgCtxt);
+  }
+
+  private PartDigests getDigests(MessageContext msgCtxt) throws Exception {
+    return PartDigests.compile(getSimpleOptionalProperty("digests", msgCtxt));
+  }
+
+  private FormLimits getFormLimits(MessageContext msgCtxt) throws Exception {
+    return new FormLimits(
+        getLongProperty("max-body-size", -1L, msgCtxt),
+        getLongProperty("max-part-size", -1L, msgCtxt),
+        getIntProperty("max-part-count", -1, msgCtxt),
+        getIntProperty("max-header-size", -1, msgCtxt));
+  }
+
+  private PartSelector getPartSelector(MessageContext msgCtxt) throws Exception {
+    return PartSelector.compile(
+        getSimpleOptionalProperty("select-names", msgCtxt),
+        getSimpleOptionalProperty("select-filenames", msgCtxt),
+        getSimpleOptionalProperty("select-content-types", msgCtxt));
+  }
+
+  private static long getContentLength(Message message) {
+    String length = message.getHeader("content-length");
+    if (length != null) {
+      try {
+        return Long.parseLong(length.trim());
+      } catch (NumberFormatException exc1) {
+        // fall through
+      }
+    }
+    return -1L;
+  }
+
+  private DiskFileItemFactory getFileItemFactory(MessageContext msgCtxt) throws Exception {
+    // items larger than the threshold are written to files in the spill directory
+    int sizeThreshold = getSizeThreshold(msgCtxt);
+    File spillDirectory = getSpillDirectory(msgCtxt);
+    int poolSize = getSpillPoolSize(msgCtxt);
+    return (poolSize > 0)
+        ? SpillFilePool.get(spillDirectory, poolSize).newItemFactory(sizeThreshold)
+        : new DiskFileItemFactory(sizeThreshold, spillDirectory);
+  }
+
+  private static List<FileItem> parseForm(
+      final InputStream data,
+      final long dataLength,
+      final String contentType,
+      final DiskFileItemFactory fileItemFactory,
+      final FormLimits limits,
+      final PartSelector selector)
       throws Exception {
-    final DiskFileItemFactory fileItemFactory = new DiskFileItemFactory();
-    fileItemFactory.setSizeThreshold(5*1024*1024);
     final ServletFileUpload upload = new ServletFileUpload(fileItemFactory);
-    final HttpServletRequest request = new AdapterHttpServletRequest(data, contentType);
+    final HttpServletRequest request =
+        new AdapterHttpServletRequest(data, dataLength, contentType);
     final boolean isMultipart = ServletFileUpload.isMultipartContent(request);
     if ((!isMultipart)) {
       throw new IllegalStateException(
           "Illegal request for uploading files. Multipart request expected.");
     }
-    final List<FileItem> iter = upload.parseRequest(request);
-    return iter;
+    // This is what upload.parseRequest() does, with the limits checked as each
+    // part arrives, so the parse stops at the first part that crosses one. A
+    // file part that is not selected gets no item; the iterator skips its bytes.
+    final List<FileItem> items = new ArrayList<FileItem>();
+    final boolean selectAll = selector.selectsAll();
+    boolean successful = false;
+    try {
+      FileItemIterator iter = upload.getItemIterator(request);
+      int partCount = 0;
+      while (iter.hasNext()) {
+        FileItemStream stream = iter.next();
+        limits.checkPartCount(++partCount);
+        limits.checkHeaders(stream.getHeaders());
+        if (!stream.isFormField()
+            && !selectAll
+            && !selector.matches(
+                stream.getFieldName(), stream.getName(), stream.getContentType())) {
+          continue;
+        }
+        FileItem item =
+            fileItemFactory.createItem(
+                stream.getFieldName(),
+                stream.getContentType(),
+                stream.isFormField(),
+                stream.getName());
+        items.add(item);
+        try (InputStream is = limits.limitPart(stream.openStream())) {
+          Streams.copy(is, item.getOutputStream(), true);
+        }
+        item.setHeaders(stream.getHeaders());
+      }
+      successful = true;
+      return items;
+    } catch (FileUploadBase.FileUploadIOException exc1) {
+      throw (FileUploadException) exc1.getCause();
+    } finally {
+      if (!successful) {
+        for (FileItem item : items) {
+          item.delete();
+        }
+      }
+    }
+  }
+
+  private static FileItemIterator parseFormStreaming(
+      final InputStream input, final long contentLength, final String contentType)
+      throws Exception {
+    // no FileItemFactory: items are handed out as streams, directly over the
+    // message content, in the order they appear in the form.
+    final ServletFileUpload upload = new ServletFileUpload();
+    final HttpServletRequest request =
+        new AdapterHttpServletRequest(input, contentLength, contentType);
+    if (!ServletFileUpload.isMultipartContent(request)) {
+      throw new IllegalStateException(
+          "Illegal request for uploading files. Multipart request expected.");
+    }
+    return upload.getItemIterator(request);
+  }
+
+  /**
+   * Publishes the file items of one form, in form order, as they are extracted: as the
+   * item_*_N variables, unless want-item-variables is false; under part.NAME, with
+   * want-part-variables; and in a FormManifest, with want-manifest. The digests of an item, if
+   * any, are published alongside its size.
+   */
+  private final class ItemOutput {
+    private final MessageContext msgCtxt;
+    private final boolean wantItemVariables;
+    private final boolean byName;
+    private final FormManifest manifest;
+    private final List<String> names = new ArrayList<String>();
+    private final Set<String> partNames = new HashSet<String>();
+
+    ItemOutput(MessageContext msgCtxt) throws Exception {
+      this.msgCtxt = msgCtxt;
+      this.wantItemVariables = getBooleanProperty("want-item-variables", true, msgCtxt);
+      this.byName = getBooleanProperty("want-part-variables", false, msgCtxt);
+      this.manifest =
+          getBooleanProperty("want-manifest", false, msgCtxt) ? new FormManifest() : null;
+    }
+
+    void add(
+        String partName,
+        String fileName,
+        String contentType,
+        Object content,
+        long size,
+        Map<String, String> digests) {
+      int n = names.size();
+      names.add(fileName);
+      String sizeString = (wantItemVariables || byName) ? size + "" : null;
+      if (wantItemVariables) {
+        msgCtxt.setVariable(varName("item_filename_" + n), fileName);
+        if (content != null) {
+          msgCtxt.setVariable(varName("item_content_" + n), content);
+        }
+        msgCtxt.setVariable(varName("item_content-type_" + n), contentType);
+        msgCtxt.setVariable(varName("item_size_" + n), sizeString);
+        if (digests != null) {
+          for (Map.Entry<String, String> entry : digests.entrySet()) {
+            msgCtxt.setVariable(varName("item_" + entry.getKey() + "_" + n), entry.getValue());
+          }
+        }
+      }
+      if (byName && partName != null && partNames.add(partName)) {
+        // a policy can find the part by name, without a search; of several
+        // parts with one name, the first, as in the MultipartIndex
+        String prefix = "part." + partName + ".";
+        msgCtxt.setVariable(varName(prefix + "filename"), fileName);
+        if (content != null) {
+          msgCtxt.setVariable(varName(prefix + "content"), content);
+        }
+        msgCtxt.setVariable(varName(prefix + "content-type"), contentType);
+        msgCtxt.setVariable(varName(prefix + "size"), sizeString);
+        msgCtxt.setVariable(varName(prefix + "index"), n + "");
+        if (digests != null) {
+          for (Map.Entry<String, String> entry : digests.entrySet()) {
+            msgCtxt.setVariable(varName(prefix + entry.getKey()), entry.getValue());
+          }
+        }
+      }
+      if (manifest != null) {
+        manifest.add(partName, fileName, contentType, size, content, digests);
+      }
+    }
+
+    void finish() {
+      if (wantItemVariables) {
+        msgCtxt.setVariable(varName("items"), String.join(", ", names));
+      }
+      msgCtxt.setVariable(varName("itemcount"), names.size() + "");
+      if (manifest != null) {
+        msgCtxt.setVariable(varName("manifest"), manifest);
+      }
+    }
+  }
+
+  private void setFieldVariables(MessageContext msgCtxt, FormFields fields) {
+    for (Map.Entry<String, Object> entry : fields.asMap().entrySet()) {
+      msgCtxt.setVariable(varName("field_" + entry.getKey()), entry.getValue());
+    }
+    msgCtxt.setVariable(varName("fields"), String.join(", ", fields.asMap().keySet()));
+  }
+
+  private static Object wrapContent(byte[] content, boolean wantByteBuffer) {
+    return wantByteBuffer ? ByteBuffer.wrap(content).asReadOnlyBuffer() : content;
+  }
+
+  static boolean isDecodable(String transferEncoding) {
+    if (transferEncoding == null) {
+      return false;
+    }
+    String encoding = transferEncoding.trim();
+    return encoding.equalsIgnoreCase("base64") || encoding.equalsIgnoreCase("quoted-printable");
+  }
+
+  // Wraps the content of a part in a stream that decodes it, if it has a
+  // transfer-encoding of base64 or quoted-printable. Other encodings (7bit,
+  // 8bit, binary) need no decoding.
+  static InputStream decodingStream(InputStream is, String transferEncoding) {
+    if (!isDecodable(transferEncoding)) {
+      return is;
+    }
+    if (transferEncoding.trim().equalsIgnoreCase("base64")) {
+      return Base64.getMimeDecoder().wrap(is); // skips line breaks
+    }
+    return new QuotedPrintableDecodingInputStream(is);
+  }
+
+  // Reads the content of a part, decoding it on the way if need be.
+  static byte[] readContent(InputStream is, long size, String transferEncoding)
+      throws Exception {
+    return readContent(is, size, transferEncoding, PartDigests.NONE.start());
+  }
+
+  // As above; the digester is fed the content, as decoded, while it is read.
+  private static byte[] readContent(
+      InputStream is, long size, String transferEncoding, PartDigests.Digester digester)
+      throws Exception {
+    if (isDecodable(transferEncoding)
+        && transferEncoding.trim().equalsIgnoreCase("base64")
+        && size >= 0) {
+      size = size / 4 * 3; // the decoded size is at most 3/4 of the encoded
+    }
+    return streamToByteArray(digester.wrap(decodingStream(is, transferEncoding)), size);
+  }
+
+  // Returns content that is read, and decoded, only when it is first used. Its
+  // decoded size is counted now, from the encoded content, without decoding it;
+  // unless there are digests, which need the decoded content now, and which are
+  // computed in the same pass that counts it.
+  private static LazyContent lazyContent(
+      ByteBuffer raw, String transferEncoding, PartDigests.Digester digester) throws Exception {
+    if (!isDecodable(transferEncoding)) {
+      digester.update(raw);
+      return new LazyContent(raw);
+    }
+    LazyContent.Source source =
+        () -> decodingStream(new ByteBufferInputStream(raw), transferEncoding);
+    return new LazyContent(
+        source,
+        digester.isEmpty()
+            ? decodedSize(new ByteBufferInputStream(raw), transferEncoding)
+            : digestedSize(source, digester));
+  }
+
+  // Returns the size that the encoded content decodes to, without decoding it.
+  private static long decodedSize(InputStream is, String transferEncoding) throws Exception {
+    try (InputStream encoded = is) {
+      return transferEncoding.trim().equalsIgnoreCase("base64")
+          ? Base64DecodingInputStream.mimeDecodedLength(encoded)
+          : QuotedPrintableDecodingInputStream.decodedLength(encoded);
+    }
+  }
+
+  private static long digestedSize(LazyContent.Source source, PartDigests.Digester digester)
+      throws Exception {
+    try (InputStream is = digester.wrap(source.open())) {
+      return countContent(is);
+    }
+  }
+
+  private static String getTransferEncoding(FileItemHeaders headers, boolean wantDecode) {
+    return (wantDecode && headers != null)
+        ? headers.getHeader("content-transfer-encoding")
+        : null;
+  }
+
+  private static MappedByteBuffer mapFile(File file) throws Exception {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      // the mapping remains valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  // Returns the content of a file item as a byte array or a ByteBuffer. An item
+  // that was spilled to disk is read through a read-only mapping of its file,
+  // rather than through a stream; with content-as=bytebuffer, the mapping is
+  // itself the content.
+  private static Object readItemContent(
+      FileItem item,
+      boolean wantByteBuffer,
+      String transferEncoding,
+      PartDigests.Digester digester)
+      throws Exception {
+    if (!item.isInMemory() && item instanceof DiskFileItem) {
+      MappedByteBuffer mapped = mapFile(((DiskFileItem) item).getStoreLocation());
+      if (isDecodable(transferEncoding)) {
+        byte[] decoded =
+            readContent(
+                new ByteBufferInputStream(mapped), mapped.remaining(), transferEncoding, digester);
+        return wrapContent(decoded, wantByteBuffer);
+      }
+      digester.update(mapped);
+      if (wantByteBuffer) {
+        if (item instanceof SpillFilePool.PooledFileItem) {
+          ((SpillFilePool.PooledFileItem) item).detach(); // the file must not be reused
+        }
+        return mapped;
+      }
+      byte[] content = new byte[mapped.remaining()];
+      mapped.get(content);
+      return content;
+    }
+    byte[] content =
+        readContent(item.getInputStream(), item.getSize(), transferEncoding, digester);
+    return wrapContent(content, wantByteBuffer);
+  }
+
+  // Returns the content of a file item as LazyContent. An item that was spilled
+  // to disk is mapped, and the mapping remains valid after the item is deleted;
+  // an item in memory keeps its content until it is garbage collected.
+  private static LazyContent lazyItemContent(
+      FileItem item, String transferEncoding, PartDigests.Digester digester) throws Exception {
+    if (!item.isInMemory() && item instanceof DiskFileItem) {
+      if (item instanceof SpillFilePool.PooledFileItem) {
+        ((SpillFilePool.PooledFileItem) item).detach(); // the file must not be reused
+      }
+      return lazyContent(
+          mapFile(((DiskFileItem) item).getStoreLocation()), transferEncoding, digester);
+    }
+    LazyContent.Source source = () -> decodingStream(item.getInputStream(), transferEncoding);
+    if (!digester.isEmpty()) {
+      return new LazyContent(source, digestedSize(source, digester));
+    }
+    return new LazyContent(
+        source,
+        isDecodable(transferEncoding)
+            ? decodedSize(item.getInputStream(), transferEncoding)
+            : item.getSize());
+  }
+
+  // Returns the size of the content, without reading it.
+  private static long contentSize(Object content) {
+    if (content instanceof LazyContent) {
+      return ((LazyContent) content).knownSize();
+    }
+    return (content instanceof ByteBuffer)
+        ? ((ByteBuffer) content).remaining()
+        : ((byte[]) content).length;
+  }
+
+  // Reads the stream to its end, through a small scratch buffer, and returns
+  // the number of bytes read. Reading, rather than skipping, keeps any limit on
+  // the stream in force.
+  private static long countContent(InputStream is) throws Exception {
+    byte[] scratch = new byte[8192];
+    long count = 0;
+    int n;
+    while ((n = is.read(scratch)) != -1) {
+      count += n;
+    }
+    return count;
+  }
+
+  static String sanitizeFileName(String name) {
+    return name.replaceAll("[^a-zA-Z0-9_\\. ]", "");
+  }
+
+  private void extractItems(MessageContext msgCtxt, Message message, ItemOutput output)
+      throws Exception {
+    List<FileItem> items;
+    // The body is needed only until fileupload has copied out the items, so it
+    // is read into a per-thread buffer that the next request will reuse.
+    FormLimits limits = getFormLimits(msgCtxt);
+    long contentLength = getContentLength(message);
+    try (ContentBuffers.Lease body =
+        ContentBuffers.lease(
+            limits.limitBody(message.getContentAsStream(), contentLength), contentLength)) {
+      items =
+          parseForm(
+              body.openStream(),
+              body.length(),
+              message.getHeader("content-type"),
+              getFileItemFactory(msgCtxt),
+              limits,
+              getPartSelector(msgCtxt));
+    }
+    try {
+      extractFileItems(msgCtxt, items, output);
+    } finally {
+      // Spilled items are deleted now, rather than whenever the garbage
+      // collector finalizes them. A mapping handed out as content remains valid.
+      for (FileItem item : items) {
+        item.delete();
+      }
+    }
+  }
+
+  private void extractFileItems(MessageContext msgCtxt, List<FileItem> items, ItemOutput output)
+      throws Exception {
+    long spilledBytes = 0;
+    int spilledCount = 0;
+    for (FileItem item : items) {
+      if (!item.isInMemory()) {
+        spilledBytes += item.getSize();
+        spilledCount++;
+      }
+    }
+    msgCtxt.setVariable(varName("spilled_bytes"), spilledBytes + "");
+    msgCtxt.setVariable(varName("spilled_count"), spilledCount + "");
+
+    boolean wantByteBuffers = getWantByteBuffers(msgCtxt);
+    boolean wantLazy = getWantLazyContent(msgCtxt);
+    boolean wantDecode = getDecodeTransferEncoding(msgCtxt);
+    PartDigests digests = getDigests(msgCtxt);
+    FormFields fields = getWantFields(msgCtxt) ? new FormFields() : null;
+    for (FileItem item : items) {
+      if (item.isFormField()) {
+        if (fields != null && item.getFieldName() != null) {
+          byte[] value =
+              readContent(
+                  item.getInputStream(),
+                  item.getSize(),
+                  getTransferEncoding(item.getHeaders(), wantDecode));
+          fields.add(
+              item.getFieldName(),
+              new String(value, FormFields.charsetOf(item.getContentType())));
+        }
+      } else {
+        String transferEncoding = getTransferEncoding(item.getHeaders(), wantDecode);
+        PartDigests.Digester digester = digests.start();
+        Object content =
+            wantLazy
+                ? lazyItemContent(item, transferEncoding, digester)
+                : readItemContent(item, wantByteBuffers, transferEncoding, digester);
+        output.add(
+            item.getFieldName(),
+            sanitizeFileName(item.getName()),
+            item.getContentType(),
+            content,
+            contentSize(content),
+            digester.finish());
+      }
+    }
+    if (fields != null) {
+      setFieldVariables(msgCtxt, fields);
+    }
+  }
+
+  private void extractItemsStreaming(MessageContext msgCtxt, Message message, ItemOutput output)
+      throws Exception {
+    // Each part is read exactly once, as it arrives on the message stream. Only
+    // the content of the current file item is ever held in memory; with
+    // metadata-only, not even that: the content is only counted.
+    FormLimits limits = getFormLimits(msgCtxt);
+    long contentLength = getContentLength(message);
+    FileItemIterator iter =
+        parseFormStreaming(
+            limits.limitBody(message.getContentAsStream(), contentLength),
+            contentLength,
+            message.getHeader("content-type"));
+    boolean wantByteBuffers = getWantByteBuffers(msgCtxt);
+    boolean wantLazy = getWantLazyContent(msgCtxt);
+    boolean wantDecode = getDecodeTransferEncoding(msgCtxt);
+    boolean metadataOnly = getMetadataOnly(msgCtxt);
+    PartSelector selector = getPartSelector(msgCtxt);
+    boolean selectAll = selector.selectsAll();
+    PartDigests digests = getDigests(msgCtxt);
+    FormFields fields = getWantFields(msgCtxt) ? new FormFields() : null;
+    int partCount = 0;
+    while (iter.hasNext()) {
+      FileItemStream item = iter.next();
+      limits.checkPartCount(++partCount);
+      limits.checkHeaders(item.getHeaders());
+      if (item.isFormField()) {
+        if (fields != null && item.getFieldName() != null) {
+          try (InputStream is = limits.limitPart(item.openStream())) {
+            byte[] value =
+                readContent(is, -1L, getTransferEncoding(item.getHeaders(), wantDecode));
+            fields.add(
+                item.getFieldName(),
+                new String(value, FormFields.charsetOf(item.getContentType())));
+          }
+        }
+        // ... otherwise the iterator skips the unread bytes.
+      } else if (!selectAll
+          && !selector.matches(item.getFieldName(), item.getName(), item.getContentType())) {
+        // not selected; likewise skipped, unread
+      } else {
+        String fileName = sanitizeFileName(item.getName());
+        PartDigests.Digester digester = digests.start();
+        try (InputStream is = limits.limitPart(item.openStream())) {
+          if (metadataOnly) {
+            long size = countContent(digester.wrap(is));
+            output.add(
+                item.getFieldName(),
+                fileName,
+                item.getContentType(),
+                null,
+                size,
+                digester.finish());
+            continue;
+          }
+          byte[] content =
+              readContent(is, -1L, getTransferEncoding(item.getHeaders(), wantDecode), digester);
+          output.add(
+              item.getFieldName(),
+              fileName,
+              item.getContentType(),
+              // the stream cannot be revisited, so lazy content is already materialized
+              wantLazy ? new LazyContent(content) : wrapContent(content, wantByteBuffers),
+              content.length,
+              digester.finish());
+        }
+      }
+    }
+    if (fields != null) {
+      setFieldVariables(msgCtxt, fields);
+    }
+  }
+
+  private void extractItemsNative(MessageContext msgCtxt, Message message, ItemOutput output)
+      throws Exception {
+    // The scanner yields each part as a region of the buffered body. With
+    // content-as=bytebuffer, the item content variable is a read-only view of
+    // that region, so the content bytes are never copied. Otherwise the body is
+    // needed only until the items are copied out, so it is read into a
+    // per-thread buffer that the next request will reuse. With content-as=lazy,
+    // the body is retained, and each part is copied out only if it is used.
+    // With metadata-only, nothing is copied out, and the per-thread buffer is
+    // used, unless an index, which retains the body, is wanted.
+    String boundary = MultipartScanner.getBoundary(message.getHeader("content-type"));
+    boolean wantByteBuffers = getWantByteBuffers(msgCtxt);
+    boolean wantLazy = getWantLazyContent(msgCtxt);
+    boolean metadataOnly = getMetadataOnly(msgCtxt);
+    String indexVar = getIndexVar(msgCtxt);
+    FormLimits limits = getFormLimits(msgCtxt);
+    long contentLength = getContentLength(message);
+    try (ContentBuffers.Lease body =
+        ContentBuffers.lease(
+            limits.limitBody(message.getContentAsStream(), contentLength),
+            contentLength,
+            indexVar == null && (metadataOnly || (!wantByteBuffers && !wantLazy)))) {
+      MultipartIndex index = (indexVar != null) ? new MultipartIndex(body.array()) : null;
+      extractItemsNative(
+          msgCtxt,
+          body.array(),
+          body.length(),
+          boundary,
+          new PartExtractor(
+              body.array(),
+              wantByteBuffers,
+              wantLazy,
+              getDecodeTransferEncoding(msgCtxt),
+              metadataOnly,
+              getDigests(msgCtxt)),
+          limits,
+          getPartSelector(msgCtxt),
+          getWantFields(msgCtxt) ? new FormFields() : null,
+          index,
+          getParallelThreshold(msgCtxt),
+          output);
+      if (index != null) {
+        msgCtxt.setVariable(indexVar, index);
+      }
+    }
+  }
+
+  /** A file part of the buffered body, extracted, and ready to publish. */
+  private static final class ExtractedItem {
+    final String partName;
+    final String fileName;
+    final String contentType;
+    final Object content;
+    final long size;
+    final Map<String, String> digests;
+
+    ExtractedItem(
+        String partName,
+        String fileName,
+        String contentType,
+        Object content,
+        long size,
+        Map<String, String> digests) {
+      this.partName = partName;
+      this.fileName = fileName;
+      this.contentType = contentType;
+      this.content = content;
+      this.size = size;
+      this.digests = digests;
+    }
+  }
+
+  /**
+   * Copies, or decodes, the content of a scanned part out of the buffered body. It depends on
+   * nothing but the body and the part, so parts can be extracted on any thread.
+   */
+  private static final class PartExtractor {
+    private final byte[] inputBytes;
+    private final boolean wantByteBuffers;
+    private final boolean wantLazy;
+    private final boolean wantDecode;
+    private final boolean metadataOnly;
+    private final PartDigests digests;
+
+    PartExtractor(
+        byte[] inputBytes,
+        boolean wantByteBuffers,
+        boolean wantLazy,
+        boolean wantDecode,
+        boolean metadataOnly,
+        PartDigests digests) {
+      this.inputBytes = inputBytes;
+      this.wantByteBuffers = wantByteBuffers;
+      this.wantLazy = wantLazy;
+      this.wantDecode = wantDecode;
+      this.metadataOnly = metadataOnly;
+      this.digests = digests;
+    }
+
+    String getTransferEncoding(MultipartScanner.ScannedPart part) {
+      return wantDecode ? part.getHeader("content-transfer-encoding") : null;
+    }
+
+    String fieldValue(MultipartScanner.ScannedPart part) throws Exception {
+      int start = part.getContentOffset();
+      int length = part.getContentLength();
+      String transferEncoding = getTransferEncoding(part);
+      Charset charset = FormFields.charsetOf(part.getContentType());
+      if (isDecodable(transferEncoding)) {
+        byte[] decoded =
+            readContent(
+                new ByteArrayInputStream(inputBytes, start, length), length, transferEncoding);
+        return new String(decoded, charset);
+      }
+      return new String(inputBytes, start, length, charset);
+    }
+
+    ExtractedItem extract(MultipartScanner.ScannedPart part) throws Exception {
+      String fileName = sanitizeFileName(part.getFileName());
+      int start = part.getContentOffset();
+      int length = part.getContentLength();
+      String transferEncoding = getTransferEncoding(part);
+      PartDigests.Digester digester = digests.start();
+      Object content;
+      long size = length;
+      if (metadataOnly) {
+        // the size, and any digest, is of the region, as it appears in the form
+        content = null;
+        digester.update(inputBytes, start, length);
+      } else if (wantLazy) {
+        LazyContent lazy =
+            lazyContent(
+                ByteBuffer.wrap(inputBytes, start, length).slice(), transferEncoding, digester);
+        content = lazy;
+        size = lazy.knownSize();
+      } else if (isDecodable(transferEncoding)) {
+        // decoded, and digested, in one pass over the region of the body
+        byte[] decoded =
+            readContent(
+                new ByteArrayInputStream(inputBytes, start, length),
+                length,
+                transferEncoding,
+                digester);
+        content = wrapContent(decoded, wantByteBuffers);
+        size = decoded.length;
+      } else {
+        digester.update(inputBytes, start, length);
+        content =
+            wantByteBuffers
+                ? ByteBuffer.wrap(inputBytes, start, length).slice().asReadOnlyBuffer()
+                : Arrays.copyOfRange(inputBytes, start, start + length);
+      }
+      return new ExtractedItem(
+          part.getName(), fileName, part.getContentType(), content, size, digester.finish());
+    }
+  }
+
+  private static ForkJoinPool getExtractionPool() {
+    ForkJoinPool pool = extractionPool;
+    if (pool == null) {
+      synchronized (MultipartFormParser.class) {
+        if (extractionPool == null) {
+          extractionPool =
+              new ForkJoinPool(
+                  Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM));
+        }
+        pool = extractionPool;
+      }
+    }
+    return pool;
+  }
+
+  // Extracts the parts, in order. If there are at least threshold parts, they
+  // are extracted concurrently on the shared, bounded pool; otherwise, and
+  // always when threshold is not positive, on the calling thread.
+  private static List<ExtractedItem> extractParts(
+      List<MultipartScanner.ScannedPart> parts, PartExtractor extractor, int threshold)
+      throws Exception {
+    List<ExtractedItem> items = new ArrayList<ExtractedItem>(parts.size());
+    if (threshold <= 0 || parts.size() < threshold) {
+      for (MultipartScanner.ScannedPart part : parts) {
+        items.add(extractor.extract(part));
+      }
+      return items;
+    }
+    List<Callable<ExtractedItem>> tasks = new ArrayList<Callable<ExtractedItem>>(parts.size());
+    for (MultipartScanner.ScannedPart part : parts) {
+      tasks.add(() -> extractor.extract(part));
+    }
+    for (Future<ExtractedItem> future : getExtractionPool().invokeAll(tasks)) {
+      try {
+        items.add(future.get());
+      } catch (ExecutionException exc1) {
+        Throwable cause = exc1.getCause();
+        throw (cause instanceof Exception) ? (Exception) cause : exc1;
+      }
+    }
+    return items;
+  }
+
+  private void extractItemsNative(
+      MessageContext msgCtxt,
+      byte[] inputBytes,
+      int inputLength,
+      String boundary,
+      PartExtractor extractor,
+      FormLimits limits,
+      PartSelector selector,
+      FormFields fields,
+      MultipartIndex index,
+      int parallelThreshold,
+      ItemOutput output)
+      throws Exception {
+    // First the scan, which indexes the selected file parts, then the
+    // extraction, which may run concurrently, then the variables, which are
+    // set on this thread, in form order.
+    MultipartScanner scanner = new MultipartScanner(inputBytes, 0, inputLength, boundary);
+    limits.apply(scanner);
+    List<MultipartScanner.ScannedPart> selected = new ArrayList<MultipartScanner.ScannedPart>();
+    boolean selectAll = selector.selectsAll();
+    int partCount = 0;
+    while (scanner.hasNext()) {
+      MultipartScanner.ScannedPart part = scanner.next();
+      limits.checkPartCount(++partCount);
+      limits.checkPartSize(part.getContentLength());
+      boolean isItem =
+          !part.isFormField()
+              && (selectAll
+                  || selector.matches(part.getName(), part.getFileName(), part.getContentType()));
+      if (index != null) {
+        index.add(part, isItem);
+      }
+      if (part.isFormField()) {
+        if (fields != null && part.getName() != null) {
+          fields.add(part.getName(), extractor.fieldValue(part));
+        }
+      } else if (isItem) {
+        selected.add(part);
+      }
+      // ... otherwise not selected; its region of the body is never copied
+    }
+    for (ExtractedItem item : extractParts(selected, extractor, parallelThreshold)) {
+      output.add(
+          item.partName, item.fileName, item.contentType, item.content, item.size, item.digests);
+    }
+    if (fields != null) {
+      setFieldVariables(msgCtxt, fields);
+    }
   }
 
   public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    beginRequest(msgCtxt);
     try {
       String source = getSource(msgCtxt);
       Message message = (Message) msgCtxt.getVariable(source);
       if (message == null) {
         throw new IllegalStateException("source message is null.");
       }
-      InputStream input = message.getContentAsStream();
-      byte[] inputBytes = streamToByteArray(input); // read it all
-      List<FileItem> items = parseForm(inputBytes, message.getHeader("content-type"));
-      List<String> names = new ArrayList<String>();
-      int n = 0;
-      for (FileItem item : items) {
-        if (item.isFormField()) {
-          // ... ignore any fields in the form
-        } else {
-          String fileName = item.getName().replaceAll("[^a-zA-Z0-9_\\. ]", "");
-          names.add(fileName);
-          byte[] itemBytes = streamToByteArray(item.getInputStream());
-          msgCtxt.setVariable(varName("item_filename_" + n), fileName);
-          msgCtxt.setVariable(varName("item_content_" + n), itemBytes);
-          msgCtxt.setVariable(varName("item_content-type_" + n), item.getContentType());
-          msgCtxt.setVariable(varName("item_size_" + n), item.getSize() + "");
-          n++;
-        }
+      boolean wantNativeParser = getWantNativeParser(msgCtxt);
+      if (!wantNativeParser && getIndexVar(msgCtxt) != null) {
+        throw new IllegalStateException("configuration error: index-var requires parser native");
       }
-      msgCtxt.setVariable(varName("items"), String.join(", ", names));
-      msgCtxt.setVariable(varName("itemcount"), names.size() + "");
+      // With metadata-only, no item content is kept, so the fileupload parser
+      // always streams: there is nothing to buffer or spill.
+      ItemOutput output = new ItemOutput(msgCtxt);
+      if (wantNativeParser) {
+        extractItemsNative(msgCtxt, message, output);
+      } else if (getStreaming(msgCtxt) || getMetadataOnly(msgCtxt)) {
+        extractItemsStreaming(msgCtxt, message, output);
+      } else {
+        extractItems(msgCtxt, message, output);
+      }
+      output.finish();
       return ExecutionResult.SUCCESS;
     } catch (IllegalStateException exc1) {
       setExceptionVariables(exc1, msgCtxt);
@@ -107,6 +977,8 @@ public class MultipartFormParser extends CalloutBase implements Execution {
       }
       setExceptionVariables(e, msgCtxt);
       return ExecutionResult.ABORT;
+    } finally {
+      endRequest();
     }
   }
 }
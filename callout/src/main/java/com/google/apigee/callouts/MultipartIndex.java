@@ -0,0 +1,120 @@
+// MultipartIndex.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a form, as found by one scan of its buffered body, which the index retains. A
+ * later policy can look up a part by position or by name, and read its content as a view over
+ * the body, without scanning the form again. The index is immutable once built.
+ *
+ * <p>A position counts every part, including form fields and file parts that were not selected.
+ * The parser numbers only the selected file parts, in its item_*_N variables; the index records
+ * that item number for each part, and maps an item number back to a position.
+ */
+public final class MultipartIndex {
+  private final byte[] body;
+  private final List<MultipartScanner.ScannedPart> parts =
+      new ArrayList<MultipartScanner.ScannedPart>();
+  private final Map<String, Integer> positionsByName = new HashMap<String, Integer>();
+  private final List<Integer> itemNumbers = new ArrayList<Integer>();
+  private final List<Integer> itemPositions = new ArrayList<Integer>();
+
+  MultipartIndex(byte[] body) {
+    this.body = body;
+  }
+
+  /** Adds a part; isItem tells whether the parser published it as the next file item. */
+  void add(MultipartScanner.ScannedPart part, boolean isItem) {
+    if (part.getName() != null && !positionsByName.containsKey(part.getName())) {
+      positionsByName.put(part.getName(), parts.size());
+    }
+    if (isItem) {
+      itemNumbers.add(itemPositions.size());
+      itemPositions.add(parts.size());
+    } else {
+      itemNumbers.add(-1);
+    }
+    parts.add(part);
+  }
+
+  /** The number of parts, including form fields. */
+  public int size() {
+    return parts.size();
+  }
+
+  /** All the parts, in form order. */
+  public List<MultipartScanner.ScannedPart> getParts() {
+    return Collections.unmodifiableList(parts);
+  }
+
+  /** The position of the first part with the given name, or -1 if there is none. */
+  public int indexOf(String name) {
+    Integer position = positionsByName.get(name);
+    return (position != null) ? position : -1;
+  }
+
+  /** The number of parts the parser published as file items. */
+  public int itemCount() {
+    return itemPositions.size();
+  }
+
+  /**
+   * The N of the item_*_N variables for the part at the position, or -1 if the parser did not
+   * publish the part as a file item.
+   */
+  public int getItemNumber(int position) {
+    return itemNumbers.get(position);
+  }
+
+  /** The position of the part published as item_*_N, or -1 if there is no such item. */
+  public int positionOfItem(int itemNumber) {
+    return (itemNumber >= 0 && itemNumber < itemPositions.size())
+        ? itemPositions.get(itemNumber)
+        : -1;
+  }
+
+  /** @throws IndexOutOfBoundsException if there is no such part */
+  public MultipartScanner.ScannedPart getPart(int position) {
+    return parts.get(position);
+  }
+
+  /** The first part with the given name, or null if there is none. */
+  public MultipartScanner.ScannedPart getPart(String name) {
+    int position = indexOf(name);
+    return (position >= 0) ? parts.get(position) : null;
+  }
+
+  /** A read-only view of the content of the part, as it appears in the form. */
+  public ByteBuffer getContent(MultipartScanner.ScannedPart part) {
+    return ByteBuffer.wrap(body, part.getContentOffset(), part.getContentLength())
+        .slice()
+        .asReadOnlyBuffer();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MultipartIndex[parts=%d]", parts.size());
+  }
+}
@@ -0,0 +1,146 @@
+// MultipartIndexLookup.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.execution.spi.Execution;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.ByteBufferInputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+public class MultipartIndexLookup extends CalloutBase implements Execution {
+  private static final String varprefix = "mpi_";
+
+  public MultipartIndexLookup(Map properties) {
+    super(properties);
+  }
+
+  public String getVarnamePrefix() {
+    return varprefix;
+  }
+
+  private MultipartIndex getIndex(MessageContext msgCtxt) throws Exception {
+    String indexVar = getSimpleRequiredProperty("index-var", msgCtxt);
+    Object index = msgCtxt.getVariable(indexVar);
+    if (!(index instanceof MultipartIndex)) {
+      throw new IllegalStateException(
+          String.format("%s does not hold a MultipartIndex", indexVar));
+    }
+    return (MultipartIndex) index;
+  }
+
+  private boolean getWantByteBuffer(MessageContext msgCtxt) throws Exception {
+    String contentAs = getSimpleOptionalProperty("content-as", msgCtxt);
+    if (contentAs == null || contentAs.equalsIgnoreCase("bytes")) {
+      return false;
+    }
+    if (contentAs.equalsIgnoreCase("bytebuffer")) {
+      return true;
+    }
+    throw new IllegalStateException(String.format("unsupported content-as: %s", contentAs));
+  }
+
+  private boolean getDecodeTransferEncoding(MessageContext msgCtxt) throws Exception {
+    return getBooleanProperty("decode-transfer-encoding", false, msgCtxt);
+  }
+
+  private int getPosition(MultipartIndex index, MessageContext msgCtxt) throws Exception {
+    String name = getSimpleOptionalProperty("part-name", msgCtxt);
+    if (name != null) {
+      int position = index.indexOf(name);
+      if (position < 0) {
+        throw new IllegalStateException(String.format("no part named %s", name));
+      }
+      return position;
+    }
+    int position = getIntProperty("part-index", -1, msgCtxt);
+    if (position >= 0) {
+      if (position >= index.size()) {
+        throw new IllegalStateException(String.format("no part at index %d", position));
+      }
+      return position;
+    }
+    // the N of the parser's item_*_N variables, which counts only selected file parts
+    int itemNumber = getIntProperty("item-index", -1, msgCtxt);
+    if (itemNumber < 0) {
+      throw new IllegalStateException("specify part-name, part-index or item-index");
+    }
+    position = index.positionOfItem(itemNumber);
+    if (position < 0) {
+      throw new IllegalStateException(String.format("no item at index %d", itemNumber));
+    }
+    return position;
+  }
+
+  public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    beginRequest(msgCtxt);
+    try {
+      MultipartIndex index = getIndex(msgCtxt);
+      int position = getPosition(index, msgCtxt);
+      MultipartScanner.ScannedPart part = index.getPart(position);
+      ByteBuffer content = index.getContent(part);
+      String transferEncoding =
+          getDecodeTransferEncoding(msgCtxt) ? part.getHeader("content-transfer-encoding") : null;
+      boolean wantByteBuffer = getWantByteBuffer(msgCtxt);
+      Object value;
+      int size;
+      if (MultipartFormParser.isDecodable(transferEncoding)) {
+        byte[] decoded =
+            MultipartFormParser.readContent(
+                new ByteBufferInputStream(content), content.remaining(), transferEncoding);
+        value = wantByteBuffer ? ByteBuffer.wrap(decoded).asReadOnlyBuffer() : decoded;
+        size = decoded.length;
+      } else if (wantByteBuffer) {
+        value = content; // a view over the retained body; no copy
+        size = content.remaining();
+      } else {
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        value = bytes;
+        size = bytes.length;
+      }
+      msgCtxt.setVariable(varName("index"), position + "");
+      msgCtxt.setVariable(varName("item"), index.getItemNumber(position) + "");
+      msgCtxt.setVariable(varName("name"), part.getName());
+      msgCtxt.setVariable(
+          varName("filename"),
+          // sanitized, as for the parser's item_filename_N
+          (part.getFileName() != null)
+              ? MultipartFormParser.sanitizeFileName(part.getFileName())
+              : null);
+      msgCtxt.setVariable(varName("content-type"), part.getContentType());
+      msgCtxt.setVariable(varName("content"), value);
+      msgCtxt.setVariable(varName("size"), size + "");
+      return ExecutionResult.SUCCESS;
+    } catch (IllegalStateException exc1) {
+      setExceptionVariables(exc1, msgCtxt);
+      return ExecutionResult.ABORT;
+    } catch (Exception e) {
+      if (getDebug()) {
+        String stacktrace = getStackTraceAsString(e);
+        msgCtxt.setVariable(varName("stacktrace"), stacktrace);
+      }
+      setExceptionVariables(e, msgCtxt);
+      return ExecutionResult.ABORT;
+    } finally {
+      endRequest();
+    }
+  }
+}
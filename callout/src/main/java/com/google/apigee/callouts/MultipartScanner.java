@@ -0,0 +1,364 @@
+// MultipartScanner.java
+//
+// Copyright (c) 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Scans a buffered multipart/form-data body for boundaries, and yields the parts as offsets
+ * into that buffer. Nothing is copied. The search for each delimiter uses Boyer-Moore-Horspool,
+ * so the scan touches only a fraction of the content bytes when the boundary is long.
+ *
+ * <p>This does not support nested multipart/mixed parts; such a part is yielded as a single
+ * part, with its raw content.
+ */
+public class MultipartScanner implements Iterator<MultipartScanner.ScannedPart> {
+  private static final byte CR = 0x0D;
+  private static final byte LF = 0x0A;
+  private static final byte DASH = 0x2D;
+  private static final byte[] CRLFCRLF = {CR, LF, CR, LF};
+
+  private final byte[] data;
+  private final int limit;
+  private final byte[] delimiter; // CRLF + "--" + boundary
+  private final int[] skip;
+  private int position; // just past the most recently found boundary
+  private boolean done;
+  private ScannedPart nextPart;
+  private int maxHeaderSize = -1;
+
+  public static class ScannedPart {
+    private final Map<String, String> headers;
+    private final int headerLength;
+    private final int contentOffset;
+    private final int contentLength;
+    private final String name;
+    private final String fileName;
+
+    ScannedPart(
+        Map<String, String> headers, int headerLength, int contentOffset, int contentLength) {
+      this.headers = Collections.unmodifiableMap(headers);
+      this.headerLength = headerLength;
+      this.contentOffset = contentOffset;
+      this.contentLength = contentLength;
+      Map<String, String> params = null;
+      String disposition = headers.get("content-disposition");
+      if (disposition != null) {
+        String lc = disposition.toLowerCase(Locale.ROOT);
+        if (lc.startsWith("form-data") || lc.startsWith("attachment")) {
+          params = parseParameters(disposition);
+        }
+      }
+      this.name = (params != null) ? params.get("name") : null;
+      if (params != null && params.containsKey("filename")) {
+        String f = params.get("filename");
+        this.fileName = (f != null) ? f : "";
+      } else {
+        this.fileName = null;
+      }
+    }
+
+    /** Lower-cased header names, mapped to the first value seen for each. */
+    public Map<String, String> getHeaders() {
+      return headers;
+    }
+
+    public String getHeader(String name) {
+      return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /** The number of bytes in the header block, including the terminating blank line. */
+    public int getHeaderLength() {
+      return headerLength;
+    }
+
+    public int getContentOffset() {
+      return contentOffset;
+    }
+
+    public int getContentLength() {
+      return contentLength;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+
+    public String getContentType() {
+      return headers.get("content-type");
+    }
+
+    public boolean isFormField() {
+      return fileName == null;
+    }
+  }
+
+  public MultipartScanner(byte[] data, String boundary) {
+    this(data, 0, data.length, boundary);
+  }
+
+  public MultipartScanner(byte[] data, int offset, int length, String boundary) {
+    this.data = data;
+    this.limit = offset + length;
+    this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    this.skip = skipTable(delimiter);
+    this.position = locateFirstBoundary(offset);
+  }
+
+  /**
+   * Limits the size of the header block of each part, including the blank line that ends it. The
+   * search for the end of the headers stops at the limit, and the scan fails there.
+   */
+  public void setMaxHeaderSize(int maxHeaderSize) {
+    this.maxHeaderSize = maxHeaderSize;
+  }
+
+  /** Extracts the boundary parameter from a multipart content-type header value. */
+  public static String getBoundary(String contentType) {
+    if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+      throw new IllegalStateException(
+          "Illegal request for uploading files. Multipart request expected.");
+    }
+    String boundary = parseParameters(contentType).get("boundary");
+    if (boundary == null || boundary.equals("")) {
+      throw new IllegalStateException("malformed form: no boundary in content-type");
+    }
+    return boundary;
+  }
+
+  private int locateFirstBoundary(int offset) {
+    // The first boundary need not be preceded by CRLF; any preamble before it is ignored.
+    int dashBoundaryLength = delimiter.length - 2;
+    if (regionMatches(offset, delimiter, 2, dashBoundaryLength)) {
+      return offset + dashBoundaryLength;
+    }
+    int ix = indexOf(offset, limit);
+    if (ix < 0) {
+      throw new IllegalStateException("malformed form: boundary not found");
+    }
+    return ix + delimiter.length;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextPart == null && !done) {
+      nextPart = scanNext();
+    }
+    return nextPart != null;
+  }
+
+  @Override
+  public ScannedPart next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    ScannedPart part = nextPart;
+    nextPart = null;
+    return part;
+  }
+
+  private ScannedPart scanNext() {
+    if (position + 1 < limit && data[position] == DASH && data[position + 1] == DASH) {
+      // close-delimiter; anything after it is epilogue
+      done = true;
+      return null;
+    }
+    int p = position;
+    while (p < limit && (data[p] == ' ' || data[p] == '\t')) {
+      p++; // transport padding
+    }
+    if (p + 1 >= limit || data[p] != CR || data[p + 1] != LF) {
+      throw new IllegalStateException("malformed form: unexpected end of stream");
+    }
+    int headerStart = p + 2;
+    int contentStart;
+    Map<String, String> headers;
+    if (regionMatches(headerStart, CRLFCRLF, 2, 2)) {
+      headers = new LinkedHashMap<String, String>();
+      contentStart = headerStart + 2;
+    } else {
+      int searchLimit =
+          (maxHeaderSize >= 0 && maxHeaderSize < limit - headerStart)
+              ? headerStart + maxHeaderSize
+              : limit;
+      int headerEnd = indexOfCrlfCrlf(headerStart, searchLimit);
+      if (headerEnd < 0) {
+        if (searchLimit < limit) {
+          throw new IllegalStateException(
+              String.format("part headers exceed max-header-size of %d bytes", maxHeaderSize));
+        }
+        throw new IllegalStateException("malformed form: unterminated part headers");
+      }
+      headers = parseHeaders(headerStart, headerEnd);
+      contentStart = headerEnd + 4;
+    }
+    int contentEnd = indexOf(contentStart, limit);
+    if (contentEnd < 0) {
+      throw new IllegalStateException("malformed form: missing closing boundary");
+    }
+    position = contentEnd + delimiter.length;
+    return new ScannedPart(
+        headers, contentStart - headerStart, contentStart, contentEnd - contentStart);
+  }
+
+  private boolean regionMatches(int at, byte[] pattern, int patternOffset, int length) {
+    if (at + length > limit) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (data[at + i] != pattern[patternOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOfCrlfCrlf(int from, int to) {
+    for (int i = from; i + 3 < to; i++) {
+      if (data[i] == CR && data[i + 1] == LF && data[i + 2] == CR && data[i + 3] == LF) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int[] skipTable(byte[] pattern) {
+    int[] table = new int[256];
+    int last = pattern.length - 1;
+    for (int i = 0; i < table.length; i++) {
+      table[i] = pattern.length;
+    }
+    for (int i = 0; i < last; i++) {
+      table[pattern[i] & 0xff] = last - i;
+    }
+    return table;
+  }
+
+  // Boyer-Moore-Horspool search for the delimiter within [from, to).
+  int indexOf(int from, int to) {
+    int last = delimiter.length - 1;
+    int i = from;
+    while (i + last < to) {
+      int j = last;
+      while (data[i + j] == delimiter[j]) {
+        if (j == 0) {
+          return i;
+        }
+        j--;
+      }
+      i += skip[data[i + last] & 0xff];
+    }
+    return -1;
+  }
+
+  private Map<String, String> parseHeaders(int start, int end) {
+    Map<String, String> headers = new LinkedHashMap<String, String>();
+    String block = new String(data, start, end - start, StandardCharsets.UTF_8);
+    String currentName = null;
+    StringBuilder currentValue = null;
+    for (String line : block.split("\r\n")) {
+      if (line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+        // folded continuation of the prior header
+        if (currentValue != null) {
+          currentValue.append(' ').append(line.trim());
+        }
+        continue;
+      }
+      if (currentName != null && !headers.containsKey(currentName)) {
+        headers.put(currentName, currentValue.toString().trim());
+      }
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        currentName = null;
+        currentValue = null;
+      } else {
+        currentName = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        currentValue = new StringBuilder(line.substring(colon + 1));
+      }
+    }
+    if (currentName != null && !headers.containsKey(currentName)) {
+      headers.put(currentName, currentValue.toString().trim());
+    }
+    return headers;
+  }
+
+  /**
+   * Parses the parameters from a header value like {@code form-data; name="a"; filename="b"}.
+   * Parameter names are lower-cased. Quoted values may contain semicolons and escaped quotes.
+   */
+  static Map<String, String> parseParameters(String headerValue) {
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    int i = headerValue.indexOf(';');
+    int n = headerValue.length();
+    while (i >= 0 && i < n) {
+      i++; // past the semicolon
+      int eq = i;
+      while (eq < n && headerValue.charAt(eq) != '=' && headerValue.charAt(eq) != ';') {
+        eq++;
+      }
+      String name = headerValue.substring(i, eq).trim().toLowerCase(Locale.ROOT);
+      if (eq >= n || headerValue.charAt(eq) == ';') {
+        if (!name.equals("")) {
+          params.put(name, null);
+        }
+        i = eq;
+        continue;
+      }
+      int v = eq + 1;
+      while (v < n && headerValue.charAt(v) == ' ') {
+        v++;
+      }
+      StringBuilder value = new StringBuilder();
+      if (v < n && headerValue.charAt(v) == '"') {
+        v++;
+        while (v < n && headerValue.charAt(v) != '"') {
+          char c = headerValue.charAt(v);
+          if (c == '\\' && v + 1 < n) {
+            c = headerValue.charAt(++v);
+          }
+          value.append(c);
+          v++;
+        }
+        v++; // closing quote
+        while (v < n && headerValue.charAt(v) != ';') {
+          v++;
+        }
+      } else {
+        int semi = headerValue.indexOf(';', v);
+        int stop = (semi < 0) ? n : semi;
+        value.append(headerValue.substring(v, stop).trim());
+        v = stop;
+      }
+      if (!name.equals("") && !params.containsKey(name)) {
+        params.put(name, value.toString());
+      }
+      i = v;
+    }
+    return params;
+  }
+}
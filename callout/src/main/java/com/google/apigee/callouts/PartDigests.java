@@ -0,0 +1,247 @@
+// PartDigests.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.Crc32c;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * The digests the parser computes over the content of each file part, from a comma-separated
+ * list: sha-256, sha-512, sha-1, md5, crc32c, crc32. Each is published under its name without
+ * the dash, as lowercase hex. A {@link Digester} is fed the content as it is read, so a digest
+ * costs no pass over the data of its own.
+ */
+final class PartDigests {
+  static final PartDigests NONE = new PartDigests(new ArrayList<String>());
+
+  private final List<String> names;
+  private final Digester empty;
+
+  private PartDigests(List<String> names) {
+    this.names = names;
+    this.empty = names.isEmpty() ? new Digester(names) : null;
+  }
+
+  /** The spec may be null, meaning no digests. */
+  static PartDigests compile(String spec) {
+    if (spec == null) {
+      return NONE;
+    }
+    List<String> names = new ArrayList<String>();
+    for (String item : spec.split(",")) {
+      String name = item.trim().toLowerCase().replace("-", "");
+      if (name.isEmpty()) {
+        continue;
+      }
+      if (!name.matches("sha256|sha512|sha1|md5|crc32c|crc32")) {
+        throw new IllegalStateException(
+            String.format("configuration error: unsupported digest: %s", item.trim()));
+      }
+      if (!names.contains(name)) {
+        names.add(name);
+      }
+    }
+    return names.isEmpty() ? NONE : new PartDigests(names);
+  }
+
+  /** Returns a digester for one part; each part gets its own, unless there are no digests. */
+  Digester start() {
+    return (empty != null) ? empty : new Digester(names);
+  }
+
+  private interface Accumulator {
+    void update(byte[] b, int off, int len);
+
+    void update(ByteBuffer buffer);
+
+    String hex();
+  }
+
+  private static final class MessageDigestAccumulator implements Accumulator {
+    private final MessageDigest digest;
+
+    MessageDigestAccumulator(String algorithm) {
+      try {
+        digest = MessageDigest.getInstance(algorithm);
+      } catch (NoSuchAlgorithmException exc1) {
+        throw new IllegalStateException(exc1); // every JRE provides these
+      }
+    }
+
+    public void update(byte[] b, int off, int len) {
+      digest.update(b, off, len);
+    }
+
+    public void update(ByteBuffer buffer) {
+      digest.update(buffer);
+    }
+
+    public String hex() {
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+  }
+
+  private static final class ChecksumAccumulator implements Accumulator {
+    private final Checksum checksum;
+
+    ChecksumAccumulator(Checksum checksum) {
+      this.checksum = checksum;
+    }
+
+    public void update(byte[] b, int off, int len) {
+      checksum.update(b, off, len);
+    }
+
+    public void update(ByteBuffer buffer) {
+      if (buffer.hasArray()) {
+        checksum.update(
+            buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+        return;
+      }
+      // a mapped file, say: copied through a small scratch buffer
+      byte[] scratch = new byte[Math.min(8192, buffer.remaining())];
+      while (buffer.hasRemaining()) {
+        int n = Math.min(scratch.length, buffer.remaining());
+        buffer.get(scratch, 0, n);
+        checksum.update(scratch, 0, n);
+      }
+    }
+
+    public String hex() {
+      return String.format("%08x", checksum.getValue());
+    }
+  }
+
+  private static Accumulator accumulator(String name) {
+    switch (name) {
+      case "crc32c":
+        return new ChecksumAccumulator(new Crc32c());
+      case "crc32":
+        return new ChecksumAccumulator(new CRC32());
+      case "md5":
+        return new MessageDigestAccumulator("MD5");
+      default: // sha256 -> SHA-256
+        return new MessageDigestAccumulator("SHA-" + name.substring(3));
+    }
+  }
+
+  /** Accumulates the digests of one part. It is not thread-safe. */
+  static final class Digester {
+    private final List<String> names;
+    private final Accumulator[] accumulators;
+
+    private Digester(List<String> names) {
+      this.names = names;
+      this.accumulators = new Accumulator[names.size()];
+      for (int i = 0; i < accumulators.length; i++) {
+        accumulators[i] = accumulator(names.get(i));
+      }
+    }
+
+    boolean isEmpty() {
+      return accumulators.length == 0;
+    }
+
+    void update(byte[] b, int off, int len) {
+      for (Accumulator accumulator : accumulators) {
+        accumulator.update(b, off, len);
+      }
+    }
+
+    /** Digests the remaining bytes of the buffer; its position is left unchanged. */
+    void update(ByteBuffer buffer) {
+      for (Accumulator accumulator : accumulators) {
+        accumulator.update(buffer.duplicate());
+      }
+    }
+
+    /** Digests each byte read through the returned stream. */
+    InputStream wrap(InputStream is) {
+      if (isEmpty()) {
+        return is;
+      }
+      return new FilterInputStream(is) {
+        @Override
+        public int read() throws IOException {
+          int b = in.read();
+          if (b != -1) {
+            update(new byte[] {(byte) b}, 0, 1);
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          int n = in.read(b, off, len);
+          if (n > 0) {
+            update(b, off, n);
+          }
+          return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+          // skipped bytes must be digested too
+          byte[] scratch = new byte[(int) Math.min(8192, Math.max(n, 1))];
+          long skipped = 0;
+          while (skipped < n) {
+            int count = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (count == -1) {
+              break;
+            }
+            skipped += count;
+          }
+          return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+          return false;
+        }
+      };
+    }
+
+    /** Returns each digest, keyed by name, in the configured order; or null, if there are none. */
+    Map<String, String> finish() {
+      if (isEmpty()) {
+        return null;
+      }
+      Map<String, String> digests = new LinkedHashMap<String, String>();
+      for (int i = 0; i < accumulators.length; i++) {
+        digests.put(names.get(i), accumulators[i].hex());
+      }
+      return digests;
+    }
+  }
+}
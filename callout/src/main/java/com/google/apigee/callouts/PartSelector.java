@@ -0,0 +1,130 @@
+// PartSelector.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which file parts of a form the parser extracts. Each criterion is a comma-separated
+ * list: part names, filename globs, and content-type globs. A part is selected when, for each
+ * criterion that is specified, it matches at least one entry in the list. In a glob, {@code *}
+ * matches any run of characters and {@code ?} matches one character.
+ */
+final class PartSelector {
+  static final PartSelector ALL = new PartSelector(null, null, null);
+
+  private final List<String> names;
+  private final List<Pattern> fileNames;
+  private final List<Pattern> contentTypes;
+
+  private PartSelector(List<String> names, List<Pattern> fileNames, List<Pattern> contentTypes) {
+    this.names = names;
+    this.fileNames = fileNames;
+    this.contentTypes = contentTypes;
+  }
+
+  /** Any argument may be null, meaning that criterion does not apply. */
+  static PartSelector compile(String names, String fileNameGlobs, String contentTypeGlobs) {
+    if (names == null && fileNameGlobs == null && contentTypeGlobs == null) {
+      return ALL;
+    }
+    return new PartSelector(
+        (names != null) ? split(names) : null,
+        (fileNameGlobs != null) ? compileGlobs(fileNameGlobs, 0) : null,
+        (contentTypeGlobs != null)
+            ? compileGlobs(contentTypeGlobs, Pattern.CASE_INSENSITIVE)
+            : null);
+  }
+
+  private static List<String> split(String list) {
+    List<String> items = new ArrayList<String>();
+    for (String item : list.split(",")) {
+      item = item.trim();
+      if (!item.isEmpty()) {
+        items.add(item);
+      }
+    }
+    return items;
+  }
+
+  private static List<Pattern> compileGlobs(String list, int flags) {
+    List<Pattern> patterns = new ArrayList<Pattern>();
+    for (String glob : split(list)) {
+      StringBuilder regex = new StringBuilder();
+      int literalStart = 0;
+      for (int i = 0; i < glob.length(); i++) {
+        char c = glob.charAt(i);
+        if (c == '*' || c == '?') {
+          if (i > literalStart) {
+            regex.append(Pattern.quote(glob.substring(literalStart, i)));
+          }
+          regex.append((c == '*') ? ".*" : ".");
+          literalStart = i + 1;
+        }
+      }
+      if (literalStart < glob.length()) {
+        regex.append(Pattern.quote(glob.substring(literalStart)));
+      }
+      patterns.add(Pattern.compile(regex.toString(), flags | Pattern.DOTALL));
+    }
+    return patterns;
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String value) {
+    if (value == null) {
+      return false;
+    }
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(value).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** True if every part is selected, so that the parser need not match each part. */
+  boolean selectsAll() {
+    return this == ALL;
+  }
+
+  /**
+   * The content type is compared without its parameters, so {@code text/plain; charset=UTF-8}
+   * matches {@code text/plain}.
+   */
+  boolean matches(String name, String fileName, String contentType) {
+    if (names != null && (name == null || !names.contains(name))) {
+      return false;
+    }
+    if (fileNames != null && !matchesAny(fileNames, fileName)) {
+      return false;
+    }
+    if (contentTypes != null) {
+      String mediaType = null;
+      if (contentType != null) {
+        int semi = contentType.indexOf(';');
+        mediaType = ((semi >= 0) ? contentType.substring(0, semi) : contentType).trim();
+      }
+      if (!matchesAny(contentTypes, mediaType)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
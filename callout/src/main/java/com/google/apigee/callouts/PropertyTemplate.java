@@ -0,0 +1,108 @@
+// PropertyTemplate.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.message.MessageContext;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A property value, parsed once into literal segments and variable references. A reference is
+ * a pair of curlies around a name that contains no curlies or spaces, eg {apiproxy.name}. Any
+ * other curly is literal text.
+ */
+final class PropertyTemplate {
+  private final String[] segments;
+  private final boolean[] isReference;
+  private final String constantValue; // when there are no references
+
+  private PropertyTemplate(List<String> segments, List<Boolean> isReference) {
+    this.segments = segments.toArray(new String[segments.size()]);
+    this.isReference = new boolean[this.segments.length];
+    boolean hasReference = false;
+    for (int i = 0; i < this.isReference.length; i++) {
+      this.isReference[i] = isReference.get(i);
+      hasReference |= this.isReference[i];
+    }
+    this.constantValue = hasReference ? null : String.join("", segments);
+  }
+
+  static PropertyTemplate compile(String spec) {
+    List<String> segments = new ArrayList<String>();
+    List<Boolean> isReference = new ArrayList<Boolean>();
+    int literalStart = 0;
+    int i = 0;
+    int n = spec.length();
+    while (i < n) {
+      if (spec.charAt(i) == '{') {
+        int j = i + 1;
+        while (j < n && spec.charAt(j) != '}' && spec.charAt(j) != '{' && spec.charAt(j) != ' ') {
+          j++;
+        }
+        if (j < n && j > i + 1 && spec.charAt(j) == '}') {
+          if (i > literalStart) {
+            segments.add(spec.substring(literalStart, i));
+            isReference.add(false);
+          }
+          segments.add(spec.substring(i + 1, j));
+          isReference.add(true);
+          literalStart = j + 1;
+          i = j + 1;
+          continue;
+        }
+      }
+      i++;
+    }
+    if (n > literalStart) {
+      segments.add(spec.substring(literalStart));
+      isReference.add(false);
+    }
+    return new PropertyTemplate(segments, isReference);
+  }
+
+  boolean isConstant() {
+    return constantValue != null;
+  }
+
+  /**
+   * Returns the value with each reference replaced by the value of the named context variable,
+   * or by nothing if that variable is not set. Returns null if the result is empty.
+   */
+  String resolve(MessageContext msgCtxt) {
+    if (constantValue != null) {
+      return constantValue.isEmpty() ? null : constantValue;
+    }
+    if (segments.length == 1) {
+      // the common case: the entire value is a single reference
+      String v = (String) msgCtxt.getVariable(segments[0]);
+      return (v == null || v.isEmpty()) ? null : v;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < segments.length; i++) {
+      if (isReference[i]) {
+        Object v = msgCtxt.getVariable(segments[i]);
+        if (v != null) {
+          sb.append((String) v);
+        }
+      } else {
+        sb.append(segments[i]);
+      }
+    }
+    return (sb.length() > 0) ? sb.toString() : null;
+  }
+}
@@ -0,0 +1,177 @@
+// SpillFilePool.java
+//
+// Copyright (c) 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItem;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+
+/**
+ * A fixed set of files, created up front in one directory, that file items spill to in place of
+ * a new temporary file per item. When an item is deleted its file is truncated and returned to
+ * the pool, so the number of spill files stays bounded. If the pool is empty, an item gets a new
+ * file, which is kept when it is returned only if the pool has room.
+ */
+final class SpillFilePool {
+  private static final Map<String, SpillFilePool> pools =
+      new ConcurrentHashMap<String, SpillFilePool>();
+
+  private final File directory;
+  private final BlockingQueue<File> files;
+  private volatile boolean discarded;
+
+  private SpillFilePool(File directory, int capacity) {
+    this.directory = directory;
+    this.files = new ArrayBlockingQueue<File>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      files.offer(createFile());
+    }
+  }
+
+  /** Returns the pool for the directory, creating it with the given capacity on first use. */
+  static SpillFilePool get(File directory, int capacity) {
+    final File dir =
+        (directory != null) ? directory : new File(System.getProperty("java.io.tmpdir"));
+    return pools.computeIfAbsent(
+        dir.getAbsolutePath() + ":" + capacity, k -> new SpillFilePool(dir, capacity));
+  }
+
+  /**
+   * Discards every pool for the directory, and deletes its idle files. A file that is still leased
+   * is deleted when it is released.
+   */
+  static void discard(File directory) {
+    String prefix = directory.getAbsolutePath() + ":";
+    for (String key : pools.keySet()) {
+      if (key.startsWith(prefix)) {
+        SpillFilePool pool = pools.remove(key);
+        if (pool != null) {
+          pool.discarded = true;
+          File file;
+          while ((file = pool.files.poll()) != null) {
+            file.delete();
+          }
+        }
+      }
+    }
+  }
+
+  private File createFile() {
+    try {
+      return File.createTempFile("mpf_spill_", ".tmp", directory);
+    } catch (IOException exc1) {
+      throw new IllegalStateException(
+          String.format("cannot create a spill file in %s", directory), exc1);
+    }
+  }
+
+  private File lease() {
+    File file = files.poll();
+    return (file != null) ? file : createFile();
+  }
+
+  private void release(File file) {
+    try {
+      if (file.length() > 0) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(0);
+        }
+      }
+      if (!discarded && files.offer(file)) {
+        if (discarded && files.remove(file)) {
+          file.delete(); // the pool was discarded meanwhile
+        }
+        return;
+      }
+    } catch (IOException exc1) {
+      // fall through
+    }
+    file.delete();
+  }
+
+  /** A factory for items that spill to files from this pool. */
+  DiskFileItemFactory newItemFactory(int sizeThreshold) {
+    return new DiskFileItemFactory(sizeThreshold, directory) {
+      @Override
+      public FileItem createItem(
+          String fieldName, String contentType, boolean isFormField, String fileName) {
+        PooledFileItem item =
+            new PooledFileItem(
+                fieldName, contentType, isFormField, fileName, getSizeThreshold(), directory);
+        item.setDefaultCharset(getDefaultCharset());
+        return item;
+      }
+    };
+  }
+
+  /** A file item whose spill file comes from, and returns to, the pool. */
+  final class PooledFileItem extends DiskFileItem {
+    private File file;
+    private boolean detached;
+
+    private PooledFileItem(
+        String fieldName,
+        String contentType,
+        boolean isFormField,
+        String fileName,
+        int sizeThreshold,
+        File repository) {
+      super(fieldName, contentType, isFormField, fileName, sizeThreshold, repository);
+    }
+
+    @Override
+    protected synchronized File getTempFile() {
+      if (file == null) {
+        file = lease();
+      }
+      return file;
+    }
+
+    /**
+     * Marks the file as in use beyond the life of this item, eg by a mapping that is handed out
+     * as content. The file is then deleted, rather than reused, when this item is deleted.
+     */
+    synchronized void detach() {
+      detached = true;
+    }
+
+    @Override
+    public synchronized void delete() {
+      if (file != null) {
+        if (detached) {
+          file.delete();
+        } else {
+          release(file);
+        }
+        file = null;
+      }
+    }
+
+    @Override
+    protected void finalize() {
+      // The pool owns the file; DiskFileItem would delete it here.
+    }
+  }
+}
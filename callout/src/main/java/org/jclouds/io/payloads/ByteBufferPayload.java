@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.io.payloads;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.google.apigee.ByteBufferInputStream;
+
+/**
+ * A payload over the remaining bytes of a ByteBuffer. The bytes are streamed from the buffer
+ * as-is; they are never copied into an intermediate array.
+ */
+public class ByteBufferPayload extends BasePayload<ByteBuffer> {
+   public ByteBufferPayload(ByteBuffer content) {
+      super(checkNotNull(content, "content").asReadOnlyBuffer());
+      getContentMetadata().setContentLength(Long.valueOf(content.remaining()));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public InputStream openStream() {
+      return new ByteBufferInputStream(content);
+   }
+
+}
@@ -16,25 +16,35 @@
  */
 package org.jclouds.io.payloads;
 
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Lists.newArrayList;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Map.Entry;
+import java.util.List;
 
 import com.google.common.collect.ImmutableList;
 
 public class MultipartForm extends BasePayload<Iterable<? extends Part>> {
    public static final String BOUNDARY = "--JCLOUDS--";
-   private static final String rn = "\r\n";
+   private static final byte[] rn = {'\r', '\n'};
    private static final String dd = "--";
+   private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
    private final String boundary;
    private final Iterable<? extends Part> content;
    private final boolean isRepeatable;
+   private final byte[] boundaryLine;
+   private final byte[] footer;
 
    @SuppressWarnings("unchecked")
    public MultipartForm(String boundary, Iterable<? extends Part> content) {
@@ -43,17 +53,19 @@ public class MultipartForm extends BasePayload<Iterable<? extends Part>> {
       this.content = content;
 
       getContentMetadata().setContentType("multipart/form-data; boundary=" + boundary);
-      String boundaryrn = boundary + rn;
+      this.boundaryLine = (dd + boundary + "\r\n").getBytes(StandardCharsets.UTF_8);
+      this.footer = (dd + boundary + dd + "\r\n").getBytes(StandardCharsets.UTF_8);
       boolean isRepeatable = true;
       long contentLength = 0;
       for (Part part : content) {
          if (!part.isRepeatable())
             isRepeatable = false;
-         contentLength += part.getContentMetadata().getContentLength()
-            + createHeaders(boundaryrn, part).length()
-            + createRn().length();
+         contentLength += boundaryLine.length
+            + part.getHeaderBytes().length
+            + part.getContentMetadata().getContentLength()
+            + rn.length;
       }
-      contentLength += createFooter(boundary).length();
+      contentLength += footer.length;
       getContentMetadata().setContentLength(contentLength);
       this.isRepeatable = isRepeatable;
    }
@@ -66,35 +78,151 @@ public class MultipartForm extends BasePayload<Iterable<? extends Part>> {
       this(BOUNDARY, parts);
    }
 
-   private String createRn() {
-      return rn;
+   @Override
+   public InputStream openStream() throws IOException {
+      ImmutableList.Builder<InputStream> builder = ImmutableList.builder();
+      for (Part part : content) {
+         builder.add(new ByteArrayInputStream(boundaryLine))
+            .add(new ByteArrayInputStream(part.getHeaderBytes()))
+            .add(part.openStream())
+            .add(new ByteArrayInputStream(rn));
+      }
+      builder.add(new ByteArrayInputStream(footer));
+      return new SequenceInputStream(Collections.enumeration(builder.build()));
    }
 
-   private String createHeaders(String boundaryrn, Part part) {
-      StringBuilder builder = new StringBuilder(dd).append(boundaryrn);
-      for (Entry<String, String> entry : part.getHeaders().entries()) {
-         String header = String.format("%s: %s%s", entry.getKey(), entry.getValue(), rn);
-         builder.append(header);
-      }
-      builder.append(rn);
-      return builder.toString();
+   /**
+    * Writes the entire form to the channel. Boundaries, headers, and content held in memory are
+    * written with gathering writes where the channel supports them; other content is copied
+    * through a single buffer.
+    *
+    * @return the number of bytes written
+    */
+   public long writeTo(final WritableByteChannel channel) throws IOException {
+      return writeTo(new Sink() {
+         @Override
+         public void write(ByteBuffer[] buffers) throws IOException {
+            if (channel instanceof GatheringByteChannel) {
+               GatheringByteChannel gathering = (GatheringByteChannel) channel;
+               long remaining = 0;
+               for (ByteBuffer buffer : buffers)
+                  remaining += buffer.remaining();
+               while (remaining > 0)
+                  remaining -= gathering.write(buffers);
+            } else {
+               for (ByteBuffer buffer : buffers) {
+                  while (buffer.hasRemaining())
+                     channel.write(buffer);
+               }
+            }
+         }
+      });
    }
 
-   private static String createFooter(String boundary) {
-      return dd + boundary + dd + rn;
+   /**
+    * Writes the entire form to the stream, directly from the arrays that hold the boundaries,
+    * headers, and content where possible.
+    *
+    * @return the number of bytes written
+    */
+   public long writeTo(final OutputStream out) throws IOException {
+      return writeTo(new Sink() {
+         private byte[] chunk;
+
+         @Override
+         public void write(ByteBuffer[] buffers) throws IOException {
+            for (ByteBuffer buffer : buffers) {
+               if (buffer.hasArray()) {
+                  out.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                        buffer.remaining());
+                  buffer.position(buffer.limit());
+               } else {
+                  if (chunk == null)
+                     chunk = new byte[COPY_BUFFER_SIZE];
+                  while (buffer.hasRemaining()) {
+                     int n = Math.min(chunk.length, buffer.remaining());
+                     buffer.get(chunk, 0, n);
+                     out.write(chunk, 0, n);
+                  }
+               }
+            }
+         }
+      });
    }
 
-   @Override
-   public InputStream openStream() throws IOException {
-      String boundaryrn = boundary + rn;
-      ImmutableList.Builder<InputStream> builder = ImmutableList.builder();
+   /**
+    * Returns the entire form in a single array, sized from the content length, with no
+    * intermediate copies.
+    */
+   public byte[] toByteArray() throws IOException {
+      long length = getContentMetadata().getContentLength();
+      checkState(length <= Integer.MAX_VALUE - 8, "form too large: %s bytes", length);
+      final ByteBuffer target = ByteBuffer.allocate((int) length);
+      writeTo(new Sink() {
+         @Override
+         public void write(ByteBuffer[] buffers) {
+            for (ByteBuffer buffer : buffers)
+               target.put(buffer);
+         }
+      });
+      checkState(!target.hasRemaining(), "form shorter than its content length");
+      return target.array();
+   }
+
+   private interface Sink {
+      void write(ByteBuffer[] buffers) throws IOException;
+   }
+
+   private long writeTo(Sink sink) throws IOException {
+      List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+      long written = 0;
+      ByteBuffer copyBuffer = null;
       for (Part part : content) {
-         builder.add(new ByteArrayInputStream(createHeaders(boundaryrn, part).getBytes()))
-            .add(part.openStream())
-            .add(new ByteArrayInputStream(createRn().getBytes()));
+         pending.add(ByteBuffer.wrap(boundaryLine));
+         pending.add(ByteBuffer.wrap(part.getHeaderBytes()));
+         ByteBuffer partContent = contentBuffer(part);
+         if (partContent != null) {
+            pending.add(partContent);
+         } else {
+            written += flush(sink, pending);
+            if (copyBuffer == null)
+               copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            InputStream is = part.openStream();
+            try {
+               int n;
+               while ((n = is.read(copyBuffer.array())) != -1) {
+                  copyBuffer.clear().limit(n);
+                  sink.write(new ByteBuffer[] { copyBuffer });
+                  written += n;
+               }
+            } finally {
+               is.close();
+            }
+         }
+         pending.add(ByteBuffer.wrap(rn));
       }
-      builder.add(new ByteArrayInputStream(createFooter(boundary).getBytes()));
-      return new SequenceInputStream(Collections.enumeration(builder.build()));
+      pending.add(ByteBuffer.wrap(footer));
+      return written + flush(sink, pending);
+   }
+
+   private static long flush(Sink sink, List<ByteBuffer> pending) throws IOException {
+      long length = 0;
+      for (ByteBuffer buffer : pending)
+         length += buffer.remaining();
+      if (length > 0)
+         sink.write(pending.toArray(new ByteBuffer[pending.size()]));
+      pending.clear();
+      return length;
+   }
+
+   // The content of the part, if it is already in memory, or null.
+   private static ByteBuffer contentBuffer(Part part) {
+      Object raw = part.getDelegate().getRawContent();
+      if (raw instanceof byte[])
+         return ByteBuffer.wrap((byte[]) raw);
+      if (raw instanceof ByteBuffer)
+         return ((ByteBuffer) raw).duplicate();
+      return null;
    }
 
    @Override
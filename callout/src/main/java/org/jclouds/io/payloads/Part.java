@@ -18,6 +18,9 @@ package org.jclouds.io.payloads;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+
 import org.jclouds.io.Payload;
 import org.jclouds.io.Payloads;
 import org.jclouds.javax.annotation.Nullable;
@@ -29,6 +32,7 @@ import com.google.common.net.HttpHeaders;
 public class Part extends DelegatingPayload {
    final String name;
    final Multimap<String, String> headers;
+   private final byte[] headerBytes;
 
    private static class PartMap extends ImmutableMultimap.Builder<String, String> {
 
@@ -79,11 +83,22 @@ public class Part extends DelegatingPayload {
       super(delegate);
       this.name = name;
       this.headers = checkNotNull(map, "headers").build();
+      this.headerBytes = renderHeaders(this.headers);
+   }
+
+   private static byte[] renderHeaders(Multimap<String, String> headers) {
+      StringBuilder builder = new StringBuilder();
+      for (Entry<String, String> entry : headers.entries()) {
+         builder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+      }
+      builder.append("\r\n");
+      return builder.toString().getBytes(StandardCharsets.UTF_8);
    }
 
    public static class PartOptions {
       private String contentType;
       private String contentTransferEncoding;
+      private boolean applyTransferEncoding;
       private String filename;
 
       public Part.PartOptions contentType(String contentType) {
@@ -100,6 +115,16 @@ public class Part extends DelegatingPayload {
          return this;
       }
 
+      /**
+       * Whether to encode the content with the transfer encoding, when it is base64 or
+       * quoted-printable, rather than only labeling it. By default the content is assumed to be
+       * encoded already.
+       */
+      public Part.PartOptions applyTransferEncoding(boolean apply) {
+         this.applyTransferEncoding = apply;
+         return this;
+      }
+
       public static class Builder {
          public static Part.PartOptions contentType(String contentType) {
             return new PartOptions().contentType(contentType);
@@ -122,6 +147,10 @@ public class Part extends DelegatingPayload {
          return contentTransferEncoding;
       }
 
+      public boolean getApplyTransferEncoding() {
+         return applyTransferEncoding;
+      }
+
       public String getFilename() {
          return filename;
       }
@@ -132,13 +161,25 @@ public class Part extends DelegatingPayload {
    }
 
    public static Part create(String name, Payload delegate, Part.PartOptions options) {
-      return new Part(name, PartMap.create(name, delegate, options), delegate);
+      Part.PartMap map = PartMap.create(name, delegate, options);
+      if (options != null && options.getApplyTransferEncoding()
+            && TransferEncodingPayload.canApply(options.getContentTransferEncoding()))
+         delegate = new TransferEncodingPayload(delegate, options.getContentTransferEncoding());
+      return new Part(name, map, delegate);
    }
 
    public Multimap<String, String> getHeaders() {
       return headers;
    }
 
+   /**
+    * The header block of this part, in UTF-8, including the blank line that ends it. This is
+    * rendered once, when the part is created. Callers must not modify the returned array.
+    */
+   public byte[] getHeaderBytes() {
+      return headerBytes;
+   }
+
    public String getName() {
       return name;
    }
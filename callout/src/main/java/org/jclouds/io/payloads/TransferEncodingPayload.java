@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.io.payloads;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.jclouds.io.Payload;
+
+import com.google.apigee.Base64EncodingInputStream;
+import com.google.apigee.QuotedPrintableEncodingInputStream;
+
+/**
+ * The content of another payload, encoded with a Content-Transfer-Encoding of base64 or
+ * quoted-printable as it is streamed. The encoded length is computed up front: for base64 from
+ * the length of the delegate, and for quoted-printable with one pass over the delegate.
+ */
+public class TransferEncodingPayload extends BasePayload<Payload> {
+   private final boolean base64;
+
+   public TransferEncodingPayload(Payload delegate, String encoding) {
+      super(checkNotNull(delegate, "delegate"));
+      checkArgument(canApply(encoding), "unsupported transfer-encoding: %s", encoding);
+      this.base64 = encoding.equalsIgnoreCase("base64");
+      getContentMetadata().setContentLength(encodedLength());
+   }
+
+   /** Whether the encoding is one this payload can apply. */
+   public static boolean canApply(String encoding) {
+      return encoding != null
+            && (encoding.equalsIgnoreCase("base64") || encoding.equalsIgnoreCase("quoted-printable"));
+   }
+
+   private long encodedLength() {
+      Long sourceLength = content.getContentMetadata().getContentLength();
+      if (base64 && sourceLength != null)
+         return Base64EncodingInputStream.encodedLength(sourceLength);
+      try {
+         InputStream source = content.openStream();
+         try {
+            if (base64) {
+               long length = 0;
+               byte[] scratch = new byte[8192];
+               int n;
+               while ((n = source.read(scratch)) != -1)
+                  length += n;
+               return Base64EncodingInputStream.encodedLength(length);
+            }
+            return QuotedPrintableEncodingInputStream.encodedLength(source);
+         } finally {
+            source.close();
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public InputStream openStream() throws IOException {
+      InputStream source = content.openStream();
+      return base64 ? new Base64EncodingInputStream(source)
+            : new QuotedPrintableEncodingInputStream(source);
+   }
+
+   @Override
+   public boolean isRepeatable() {
+      return content.isRepeatable();
+   }
+
+   @Override
+   public void release() {
+      content.release();
+   }
+}
@@ -40,6 +40,7 @@ public abstract class TestBase {
 
   MessageContext msgCtxt;
   InputStream messageContentStream;
+  Map<String, String> messageHeaders;
   Message message;
   ExecutionContext exeCtxt;
 
@@ -116,6 +117,8 @@ public abstract class TestBase {
 
     exeCtxt = new MockUp<ExecutionContext>() {}.getMockInstance();
 
+    messageHeaders = new HashMap<String, String>();
+
     message =
         new MockUp<Message>() {
           @Mock()
@@ -136,6 +139,17 @@ public abstract class TestBase {
                 new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
           }
 
+          @Mock()
+          public String getHeader(String name) {
+            return messageHeaders.get(name.toLowerCase());
+          }
+
+          @Mock()
+          public boolean setHeader(String name, Object value) {
+            messageHeaders.put(name.toLowerCase(), (String) value);
+            return true;
+          }
+
           @Mock()
           public String getContent() {
             // System.out.printf("\n** getContent()\n");
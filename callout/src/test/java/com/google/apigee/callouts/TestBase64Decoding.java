@@ -0,0 +1,120 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.Base64DecodingInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBase64Decoding {
+
+  private static byte[] readInChunks(InputStream is, int chunkSize) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] chunk = new byte[chunkSize];
+    int n;
+    while ((n = is.read(chunk, 0, chunkSize)) != -1) {
+      out.write(chunk, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void decode_SameAsJavaUtil() throws Exception {
+    Random random = new Random(11);
+    int[] chunkSizes = {1, 2, 3, 4, 5, 7, 64, 8192};
+    for (int length = 0; length < 40; length++) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      String padded = Base64.getEncoder().encodeToString(data);
+      String unpadded = Base64.getEncoder().withoutPadding().encodeToString(data);
+      for (String encoded : new String[] {padded, unpadded}) {
+        Assert.assertEquals(Base64DecodingInputStream.decodedLength(encoded), length, encoded);
+        for (int chunkSize : chunkSizes) {
+          byte[] decoded = readInChunks(new Base64DecodingInputStream(encoded), chunkSize);
+          Assert.assertEquals(decoded, data, encoded + " in chunks of " + chunkSize);
+        }
+        InputStream is = new Base64DecodingInputStream(encoded);
+        Assert.assertEquals(is.available(), length, "available");
+        for (int i = 0; i < length; i++) {
+          Assert.assertEquals(is.read(), data[i] & 0xff, "read()");
+        }
+        Assert.assertEquals(is.read(), -1, "end");
+      }
+    }
+  }
+
+  @Test
+  public void decodedLength_Invalid() {
+    String[] invalid = {"A", "AB=", "AB=C", "A===", "AB CD", "ABC\u00e9", "AB\r\nCD"};
+    for (String encoded : invalid) {
+      try {
+        Base64.getDecoder().decode(encoded);
+        Assert.fail("java.util.Base64 accepted " + encoded);
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+        Base64DecodingInputStream.decodedLength(encoded);
+        Assert.fail("accepted " + encoded);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void mimeDecodedLength_SameAsMimeDecoder() throws Exception {
+    Random random = new Random(17);
+    for (int length = 0; length < 200; length += 7) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      byte[] padded = Base64.getMimeEncoder().encode(data);
+      byte[] unpadded = Base64.getMimeEncoder().withoutPadding().encode(data);
+      // the decoder stops at padding, and ignores what follows it
+      byte[] trailing =
+          (new String(padded, StandardCharsets.US_ASCII) + ((length % 3 == 0) ? "" : "\r\nABCD"))
+              .getBytes(StandardCharsets.US_ASCII);
+      for (byte[] encoded : new byte[][] {padded, unpadded, trailing}) {
+        byte[] decoded =
+            readInChunks(Base64.getMimeDecoder().wrap(new ByteArrayInputStream(encoded)), 64);
+        Assert.assertEquals(decoded, data);
+        Assert.assertEquals(
+            Base64DecodingInputStream.mimeDecodedLength(new ByteArrayInputStream(encoded)),
+            length);
+      }
+    }
+    String[] invalid = {"A", "AB=", "AB=C", "A===", "=", "ABCDE\r\n"};
+    for (String encoded : invalid) {
+      byte[] bytes = encoded.getBytes(StandardCharsets.US_ASCII);
+      try {
+        readInChunks(Base64.getMimeDecoder().wrap(new ByteArrayInputStream(bytes)), 64);
+        Assert.fail("java.util.Base64 accepted " + encoded);
+      } catch (IOException expected) {
+      }
+      try {
+        Base64DecodingInputStream.mimeDecodedLength(new ByteArrayInputStream(bytes));
+        Assert.fail("accepted " + encoded);
+      } catch (IOException expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestContentBuffers {
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(7).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void readAll_ExpectedLengths() throws Exception {
+    byte[] data = randomBytes(200000);
+    long[] expectedLengths = {-1L, 0L, 10L, 199999L, 200000L, 200001L, 5000000L};
+    for (long expectedLength : expectedLengths) {
+      byte[] result = ContentBuffers.readAll(new ByteArrayInputStream(data), expectedLength);
+      Assert.assertEquals(result, data, "expectedLength " + expectedLength);
+    }
+  }
+
+  @Test
+  public void expectedLength_NotTrusted() throws Exception {
+    // a content-length header that claims far more than the body holds
+    byte[] data = randomBytes(10);
+    long[] claims = {Integer.MAX_VALUE - 8L, 3L * 1024 * 1024 * 1024};
+    for (long claim : claims) {
+      Assert.assertEquals(ContentBuffers.readAll(new ByteArrayInputStream(data), claim), data);
+      try (ContentBuffers.Lease lease =
+          ContentBuffers.lease(new ByteArrayInputStream(data), claim, false)) {
+        Assert.assertEquals(lease.toByteArray(), data);
+        Assert.assertTrue(
+            lease.array().length <= ContentBuffers.MAX_POOLED_SIZE, "claim " + claim);
+      }
+    }
+  }
+
+  @Test
+  public void readAll_Empty() throws Exception {
+    byte[] result = ContentBuffers.readAll(new ByteArrayInputStream(new byte[0]), -1L);
+    Assert.assertEquals(result.length, 0);
+  }
+
+  @Test
+  public void lease_ReusesBuffer() throws Exception {
+    byte[] data = randomBytes(30000);
+    byte[] first;
+    try (ContentBuffers.Lease lease = ContentBuffers.lease(new ByteArrayInputStream(data), -1L)) {
+      Assert.assertEquals(lease.toByteArray(), data);
+      first = lease.array();
+    }
+    byte[] smaller = randomBytes(1000);
+    try (ContentBuffers.Lease lease =
+        ContentBuffers.lease(new ByteArrayInputStream(smaller), smaller.length)) {
+      Assert.assertSame(lease.array(), first, "pooled buffer");
+      Assert.assertEquals(lease.length(), smaller.length);
+      Assert.assertEquals(lease.toByteArray(), smaller);
+    }
+    try (ContentBuffers.Lease lease =
+        ContentBuffers.lease(new ByteArrayInputStream(smaller), smaller.length, false)) {
+      Assert.assertNotSame(lease.array(), first, "unpooled buffer");
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.google.apigee.callouts;
 
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.message.Message;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.Properties;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -59,4 +61,49 @@ public class TestContentSetter extends TestBase {
     Object output = msg.getContent();
     Assert.assertNotNull(output, "no output");
   }
+
+  @Test
+  public void setContent_ByteBuffer() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    msgCtxt.setVariable("imageData", ByteBuffer.wrap(imageBytes, 100, 2000).asReadOnlyBuffer());
+
+    Properties props = new Properties();
+    props.put("contentVar", "imageData");
+    props.put("contentType", "image/png");
+
+    ContentSetter callout = new ContentSetter(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+    Assert.assertNull(msgCtxt.getVariable("cs_error"), "error");
+    Assert.assertEquals((int) msgCtxt.getVariable("cs_payload_length"), 2000, "payload_length");
+    Assert.assertEquals(messageContentStream.available(), 2000, "content length");
+  }
+
+  @Test
+  public void setContent_LazyContent() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    LazyContent lazy = new LazyContent(ByteBuffer.wrap(imageBytes, 100, 2000));
+    msgCtxt.setVariable("imageData", lazy);
+
+    Properties props = new Properties();
+    props.put("contentVar", "imageData");
+
+    ContentSetter callout = new ContentSetter(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+    Assert.assertEquals((int) msgCtxt.getVariable("cs_payload_length"), 2000, "payload_length");
+    Assert.assertEquals(messageContentStream.available(), 2000, "content length");
+    Assert.assertFalse(lazy.isMaterialized(), "materialized");
+
+    // a size that is not known is not counted, and not published
+    LazyContent unsized =
+        new LazyContent(() -> new ByteArrayInputStream(imageBytes, 100, 2000), -1L);
+    msgCtxt.setVariable("imageData", unsized);
+    msgCtxt.setVariable("cs_payload_length", null);
+    actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+    Assert.assertNull(msgCtxt.getVariable("cs_payload_length"), "payload_length");
+    Assert.assertEquals(messageContentStream.available(), 2000, "content length");
+    Assert.assertEquals(unsized.knownSize(), -1L, "size");
+  }
 }
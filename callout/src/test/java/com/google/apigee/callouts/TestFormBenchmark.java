@@ -0,0 +1,193 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.jclouds.io.payloads.ByteArrayPayload;
+import org.jclouds.io.payloads.ByteBufferPayload;
+import org.jclouds.io.payloads.MultipartForm;
+import org.jclouds.io.payloads.Part;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// A rough comparison of form creation, with part headers rendered once per part,
+// versus the former approach of formatting them twice per part, and of the ways to
+// serialize a form: openStream, writeTo, and toByteArray. Like
+// TestParserBenchmark, the timing runs are in the benchmark group, which the
+// build excludes by default, and print the mean time per form; they are not
+// rigorous.
+public class TestFormBenchmark {
+  private static final String boundary = "--------------------BENCHMARK0002";
+  private static final int iterations = 20;
+
+  private static List<Part> createParts(int partCount, int partSize) {
+    Random random = new Random(42);
+    List<Part> parts = new ArrayList<Part>();
+    for (int i = 0; i < partCount; i++) {
+      byte[] content = new byte[partSize];
+      random.nextBytes(content);
+      parts.add(
+          Part.create(
+              "part" + i,
+              new ByteArrayPayload(content),
+              new Part.PartOptions()
+                  .contentType("application/octet-stream")
+                  .filename("file" + i + ".bin")));
+    }
+    return parts;
+  }
+
+  // The header rendering MultipartForm used previously: String.format per header,
+  // once to compute the length and again to produce the stream.
+  private static String legacyHeaders(Part part) {
+    StringBuilder builder = new StringBuilder("--").append(boundary).append("\r\n");
+    for (Map.Entry<String, String> entry : part.getHeaders().entries()) {
+      builder.append(String.format("%s: %s%s", entry.getKey(), entry.getValue(), "\r\n"));
+    }
+    return builder.append("\r\n").toString();
+  }
+
+  private static byte[] createLegacy(List<Part> parts) throws Exception {
+    long length = 0;
+    for (Part part : parts) {
+      length +=
+          part.getContentMetadata().getContentLength() + legacyHeaders(part).length() + 2;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) length + 64);
+    for (Part part : parts) {
+      out.write(legacyHeaders(part).getBytes());
+      out.write(CalloutBase.streamToByteArray(part.openStream()));
+      out.write("\r\n".getBytes());
+    }
+    out.write(("--" + boundary + "--\r\n").getBytes());
+    return out.toByteArray();
+  }
+
+  private static byte[] createCurrent(List<Part> parts) throws Exception {
+    MultipartForm mpf = new MultipartForm(boundary, parts);
+    return CalloutBase.streamToByteArray(
+        mpf.openStream(), mpf.getContentMetadata().getContentLength());
+  }
+
+  private static byte[] createWithWriter(List<Part> parts) throws Exception {
+    MultipartForm mpf = new MultipartForm(boundary, parts);
+    ByteArrayOutputStream out =
+        new ByteArrayOutputStream(mpf.getContentMetadata().getContentLength().intValue());
+    mpf.writeTo(out);
+    return out.toByteArray();
+  }
+
+  private interface Create {
+    byte[] apply(List<Part> parts) throws Exception;
+  }
+
+  private static void time(String label, Create create, List<Part> parts) throws Exception {
+    for (int i = 0; i < iterations / 2; i++) {
+      create.apply(parts); // warmup
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      create.apply(parts);
+    }
+    double ms = (System.nanoTime() - start) / 1e6 / iterations;
+    System.out.printf("  %-28s %8.3f ms/form\n", label, ms);
+  }
+
+  @Test
+  public void create_SameAsLegacy() throws Exception {
+    List<Part> parts = createParts(2000, 64);
+    byte[] expected = createLegacy(parts);
+    MultipartForm mpf = new MultipartForm(boundary, parts);
+    Assert.assertEquals(mpf.getContentMetadata().getContentLength().longValue(), expected.length);
+    Assert.assertEquals(createCurrent(parts), expected);
+  }
+
+  @Test(groups = "benchmark")
+  public void benchmark_ManySmallParts() throws Exception {
+    List<Part> parts = createParts(2000, 64);
+    byte[] expected = createLegacy(parts);
+    System.out.printf("\n** create, 2000 parts x 64 bytes, %d bytes\n", expected.length);
+    time("formatted per call", TestFormBenchmark::createLegacy, parts);
+    time("cached header bytes", TestFormBenchmark::createCurrent, parts);
+  }
+
+  @Test(groups = "benchmark")
+  public void benchmark_Serialize() throws Exception {
+    List<Part> parts = createParts(2000, 64);
+    System.out.printf("\n** serialize, 2000 parts x 64 bytes\n");
+    time("openStream", TestFormBenchmark::createCurrent, parts);
+    time("writeTo(OutputStream)", TestFormBenchmark::createWithWriter, parts);
+    time("toByteArray", p -> new MultipartForm(boundary, p).toByteArray(), parts);
+  }
+
+  @Test
+  public void writeTo_SameAsOpenStream() throws Exception {
+    List<Part> parts = createParts(3, 100000);
+    parts.add(Part.create("field", "a simple value"));
+    parts.add(
+        Part.create(
+            "buffer",
+            new ByteBufferPayload(ByteBuffer.wrap(new byte[70000], 10, 69990).slice()),
+            new Part.PartOptions().contentType("application/octet-stream")));
+    MultipartForm mpf = new MultipartForm(boundary, parts);
+    byte[] expected = createCurrent(parts);
+    Assert.assertEquals(mpf.getContentMetadata().getContentLength().longValue(), expected.length);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Assert.assertEquals(mpf.writeTo(out), expected.length);
+    Assert.assertEquals(out.toByteArray(), expected, "OutputStream");
+
+    out = new ByteArrayOutputStream();
+    Assert.assertEquals(mpf.writeTo(Channels.newChannel(out)), expected.length);
+    Assert.assertEquals(out.toByteArray(), expected, "WritableByteChannel");
+
+    File file = File.createTempFile("form", ".bin");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel()) {
+      Assert.assertEquals(mpf.writeTo(channel), expected.length);
+    }
+    Assert.assertEquals(Files.readAllBytes(file.toPath()), expected, "FileChannel");
+    file.delete();
+
+    Assert.assertEquals(mpf.toByteArray(), expected, "toByteArray");
+  }
+
+  @Test
+  public void contentLength_NonAsciiFileName() throws Exception {
+    Part part =
+        Part.create(
+            "file",
+            new ByteArrayPayload("hello".getBytes(StandardCharsets.UTF_8)),
+            new Part.PartOptions().contentType("text/plain").filename("résumé.txt"));
+    MultipartForm mpf = new MultipartForm(boundary, part);
+    byte[] bytes = CalloutBase.streamToByteArray(mpf.openStream());
+    Assert.assertEquals(mpf.getContentMetadata().getContentLength().longValue(), bytes.length);
+    Assert.assertTrue(
+        new String(bytes, StandardCharsets.UTF_8).contains("filename=\"résumé.txt\""));
+  }
+}
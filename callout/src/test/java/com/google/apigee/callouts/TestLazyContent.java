@@ -0,0 +1,53 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestLazyContent {
+
+  @Test
+  public void decodedOnlyOnce() throws Exception {
+    byte[] data = "Hello, lazy world".getBytes(StandardCharsets.UTF_8);
+    byte[] encoded = Base64.getMimeEncoder().encode(data);
+    AtomicInteger opens = new AtomicInteger();
+    LazyContent lazy =
+        new LazyContent(
+            () -> {
+              opens.incrementAndGet();
+              return Base64.getMimeDecoder().wrap(new ByteArrayInputStream(encoded));
+            },
+            -1L);
+
+    // describing the content does not read it
+    Assert.assertEquals(lazy.knownSize(), -1L);
+    Assert.assertEquals(lazy.toString(), "LazyContent[size=unknown, materialized=false]");
+    Assert.assertEquals(opens.get(), 0, "opens before use");
+
+    Assert.assertEquals(lazy.getBytes(), data);
+    Assert.assertEquals(lazy.getBytes(), data);
+    Assert.assertEquals(lazy.size(), data.length);
+    Assert.assertEquals(
+        lazy.toString(), "LazyContent[size=" + data.length + ", materialized=true]");
+    Assert.assertEquals(opens.get(), 1, "opens after use");
+  }
+}
@@ -18,11 +18,13 @@ package com.google.apigee.callouts;
 
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.message.Message;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Properties;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -124,6 +126,191 @@ public class TestMultipartFormCreator extends TestBase {
     copyInputStreamToFile(is, new File("./create_Json_MultipleParts.out"));
   }
 
+  @Test
+  public void create_Streaming_RoundTrip() throws Exception {
+    String descriptorJson =
+        "{\n"
+            + "  \"part2.png\" : {\n"
+            + "    \"content-var\" :  \"imageBytes\",\n"
+            + "    \"content-type\" : \"image/png\",\n"
+            + "    \"file-name\": \"Logs_512px.png\"\n"
+            + "  }\n"
+            + "}\n";
+
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    msgCtxt.setVariable("imageBytes", imageBytes);
+
+    Properties props = new Properties();
+    props.put("descriptor", descriptorJson);
+    props.put("streaming", "true");
+
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+    Assert.assertNull(msgCtxt.getVariable("mpf_error"), "error");
+
+    byte[] form = CalloutBase.streamToByteArray(messageContentStream);
+    long payloadLength = msgCtxt.getVariable("mpf_payload_length");
+    Assert.assertEquals(payloadLength, (long) form.length, "payload_length");
+
+    // parse what was created
+    messageContentStream = new ByteArrayInputStream(form);
+    MultipartFormParser parser = new MultipartFormParser(new Properties());
+    actualResult = parser.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "parse ExecutionResult");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_filename_0"), "Logs_512px.png");
+    Assert.assertEquals((byte[]) msgCtxt.getVariable("mpf_item_content_0"), imageBytes);
+
+    // without streaming, payload_length is a long too
+    props.remove("streaming");
+    actualResult = new MultipartFormCreator(props).execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "buffered ExecutionResult");
+    long bufferedLength = msgCtxt.getVariable("mpf_payload_length");
+    Assert.assertEquals(
+        bufferedLength,
+        (long) CalloutBase.streamToByteArray(messageContentStream).length,
+        "buffered payload_length");
+  }
+
+  @Test
+  public void create_Base64Decode_RoundTrip() throws Exception {
+    String descriptorJson =
+        "{\n"
+            + "  \"image\" : {\n"
+            + "    \"content-var\" :  \"base64EncodedImageData\",\n"
+            + "    \"content-type\" : \"image/png\",\n"
+            + "    \"file-name\": \"Logs_512px.png\",\n"
+            + "    \"want-b64-decode\": true\n"
+            + "  }\n"
+            + "}\n";
+    byte[] encoded = loadImageBytes("Logs_512px.png.b64");
+    msgCtxt.setVariable("base64EncodedImageData", new String(encoded, StandardCharsets.UTF_8));
+
+    Properties props = new Properties();
+    props.put("descriptor", descriptorJson);
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+    Assert.assertNull(msgCtxt.getVariable("mpf_error"), "error");
+
+    messageContentStream =
+        new ByteArrayInputStream(CalloutBase.streamToByteArray(messageContentStream));
+    MultipartFormParser parser = new MultipartFormParser(new Properties());
+    actualResult = parser.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "parse ExecutionResult");
+    Assert.assertEquals(
+        (byte[]) msgCtxt.getVariable("mpf_item_content_0"), loadImageBytes("Logs_512px.png"));
+  }
+
+  @Test
+  public void create_Base64Decode_Invalid() throws Exception {
+    msgCtxt.setVariable("notBase64", "this is not base64!");
+    Properties props = new Properties();
+    props.put("contentVar", "notBase64");
+    props.put("want-base64-decode", "true");
+    props.put("contentType", "image/png");
+    props.put("part-name", "image");
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "ExecutionResult");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_error"), "Illegal base64 character 20");
+  }
+
+  @Test
+  public void create_ApplyTransferEncoding() throws Exception {
+    String descriptorJson =
+        "{\n"
+            + "  \"image\" : {\n"
+            + "    \"content-var\" :  \"imageBytes\",\n"
+            + "    \"content-type\" : \"image/png\",\n"
+            + "    \"file-name\": \"Logs_512px.png\",\n"
+            + "    \"transfer-encoding\": \"base64\",\n"
+            + "    \"apply-transfer-encoding\": true\n"
+            + "  },\n"
+            + "  \"text\" : {\n"
+            + "    \"content-var\" :  \"text\",\n"
+            + "    \"content-type\" : \"text/plain\",\n"
+            + "    \"file-name\": \"text.txt\",\n"
+            + "    \"transfer-encoding\": \"quoted-printable\",\n"
+            + "    \"apply-transfer-encoding\": true\n"
+            + "  }\n"
+            + "}\n";
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    msgCtxt.setVariable("imageBytes", imageBytes);
+    msgCtxt.setVariable("text", "caf\u00e9 = coffee");
+
+    Properties props = new Properties();
+    props.put("descriptor", descriptorJson);
+    props.put("streaming", "true");
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+    Assert.assertNull(msgCtxt.getVariable("mpf_error"), "error");
+
+    byte[] form = CalloutBase.streamToByteArray(messageContentStream);
+    long payloadLength = msgCtxt.getVariable("mpf_payload_length");
+    Assert.assertEquals(payloadLength, (long) form.length, "payload_length");
+
+    messageContentStream = new ByteArrayInputStream(form);
+    MultipartFormParser parser = new MultipartFormParser(new Properties());
+    actualResult = parser.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "parse ExecutionResult");
+    byte[] encodedImage = msgCtxt.getVariable("mpf_item_content_0");
+    Assert.assertEquals(Base64.getMimeDecoder().decode(encodedImage), imageBytes);
+    Assert.assertEquals(
+        new String((byte[]) msgCtxt.getVariable("mpf_item_content_1"), StandardCharsets.UTF_8),
+        "caf=C3=A9 =3D coffee");
+  }
+
+  @Test
+  public void create_ApplyTransferEncoding_Unknown() throws Exception {
+    Properties props = new Properties();
+    props.put(
+        "descriptor",
+        "{ \"p\" : { \"content-var\" : \"text\", \"transfer-encoding\" : \"uuencode\","
+            + " \"apply-transfer-encoding\" : true } }");
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "ExecutionResult");
+    Assert.assertEquals(
+        msgCtxt.getVariable("mpf_error"),
+        "descriptor: transfer-encoding for part p must be one of base64, quoted-printable, 7bit,"
+            + " 8bit, binary when apply-transfer-encoding is true");
+  }
+
+  @Test
+  public void create_DescriptorFromVariable_Repeated() throws Exception {
+    String descriptorJson =
+        "{ \"part1.txt\" : { \"content-var\" : \"text\", \"content-type\" : \"text/plain\" } }";
+    msgCtxt.setVariable("text", "Hello World");
+    msgCtxt.setVariable("my_descriptor", descriptorJson);
+
+    Properties props = new Properties();
+    props.put("descriptor", "{my_descriptor}");
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+
+    for (int i = 0; i < 3; i++) {
+      ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult " + i);
+      Assert.assertNull(msgCtxt.getVariable("mpf_error"), "error");
+      String form = new String(CalloutBase.streamToByteArray(messageContentStream), "UTF-8");
+      Assert.assertTrue(form.contains("name=\"part1.txt\""), "part name");
+      Assert.assertTrue(form.contains("\r\n\r\nHello World\r\n"), "part content");
+    }
+  }
+
+  @Test
+  public void create_InvalidDescriptor() throws Exception {
+    Properties props = new Properties();
+    props.put("descriptor", "{ \"part1.txt\" : { \"content-type\" : false } }");
+    MultipartFormCreator callout = new MultipartFormCreator(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "ExecutionResult");
+    Assert.assertEquals(
+        msgCtxt.getVariable("mpf_error"),
+        "descriptor: content-type for part part1.txt must be a string");
+  }
+
   // It is not practical to test the "destination does not exist" case without
   // a full Apigee Edge runtime. Need ClientConnection.
   //
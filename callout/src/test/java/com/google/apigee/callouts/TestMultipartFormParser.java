@@ -0,0 +1,817 @@
+// Copyright 2016 Apigee Corp, 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.google.apigee.AdapterHttpServletRequest;
+import com.google.apigee.Crc32c;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.apache.commons.fileupload.servlet.ServletRequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class TestMultipartFormParser extends TestBase {
+  private static final String boundary = "--------------------TESTBOUNDARY01";
+
+  private static void appendPart(
+      ByteArrayOutputStream out, String headers, byte[] content) throws Exception {
+    out.write(("--" + boundary + "\r\n" + headers + "\r\n").getBytes(StandardCharsets.UTF_8));
+    out.write(content);
+    out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+  }
+
+  private byte[] loadForm(byte[] imageBytes) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"field1\"\r\n",
+        "value1".getBytes(StandardCharsets.UTF_8));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"readme\"; filename=\"readme.txt\"\r\n"
+            + "Content-Type: text/plain\r\n",
+        "Hello World\r\n--not-a-boundary".getBytes(StandardCharsets.UTF_8));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"image\"; filename=\"Logs_512px.png\"\r\n"
+            + "Content-Type: image/png\r\n",
+        imageBytes);
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    byte[] form = out.toByteArray();
+
+    messageContentStream = new ByteArrayInputStream(form);
+    messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+    messageHeaders.put("content-length", form.length + "");
+    return form;
+  }
+
+  private final List<File> tempDirectories = new ArrayList<File>();
+
+  private File createTempDirectory(String prefix) throws Exception {
+    File directory = Files.createTempDirectory(prefix).toFile();
+    tempDirectories.add(directory);
+    return directory;
+  }
+
+  @AfterMethod
+  public void deleteTempDirectories() {
+    for (File directory : tempDirectories) {
+      SpillFilePool.discard(directory);
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+    tempDirectories.clear();
+  }
+
+  private static byte[] toBytes(Object content) {
+    if (content instanceof LazyContent) {
+      content = ((LazyContent) content).asByteBuffer();
+    }
+    if (content instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) content).duplicate();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+    }
+    return (byte[]) content;
+  }
+
+  private void parseAndCheck(Properties props) throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    loadForm(imageBytes);
+
+    MultipartFormParser callout = new MultipartFormParser(props);
+
+    // execute and retrieve output
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "ExecutionResult");
+
+    // check result and output
+    Object error = msgCtxt.getVariable("mpf_error");
+    Assert.assertNull(error, "error");
+
+    Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "2", "itemcount");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_items"), "readme.txt, Logs_512px.png", "items");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_filename_0"), "readme.txt");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_content-type_0"), "text/plain");
+    Assert.assertEquals(
+        toBytes(msgCtxt.getVariable("mpf_item_content_0")),
+        "Hello World\r\n--not-a-boundary".getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_filename_1"), "Logs_512px.png");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_content-type_1"), "image/png");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_1"), imageBytes.length + "");
+    Assert.assertEquals(toBytes(msgCtxt.getVariable("mpf_item_content_1")), imageBytes);
+  }
+
+  @Test
+  public void parse_Buffered() throws Exception {
+    parseAndCheck(new Properties());
+  }
+
+  @Test
+  public void parse_Streaming() throws Exception {
+    Properties props = new Properties();
+    props.put("streaming", "true");
+    parseAndCheck(props);
+  }
+
+  @Test
+  public void parse_Streaming_LargeContentLength() throws Exception {
+    // fileupload must see a declared length above 2GB as a long, not through
+    // getContentLength(), which cannot represent it
+    long length = 3L * 1024 * 1024 * 1024;
+    AdapterHttpServletRequest request =
+        new AdapterHttpServletRequest(new byte[0], "multipart/form-data; boundary=" + boundary);
+    request.setContentLength(length);
+    Assert.assertEquals(new ServletRequestContext(request).contentLength(), length);
+    Assert.assertEquals(request.getContentLengthLong(), length);
+
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    loadForm(imageBytes);
+    messageHeaders.put("content-length", length + "");
+    Properties props = new Properties();
+    props.put("streaming", "true");
+    MultipartFormParser callout = new MultipartFormParser(props);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertNull(msgCtxt.getVariable("mpf_error"));
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_1"), imageBytes.length + "");
+  }
+
+  @Test
+  public void parse_Native() throws Exception {
+    Properties props = new Properties();
+    props.put("parser", "native");
+    parseAndCheck(props);
+  }
+
+  @Test
+  public void parse_Native_ByteBuffer() throws Exception {
+    Properties props = new Properties();
+    props.put("parser", "native");
+    props.put("content-as", "bytebuffer");
+    parseAndCheck(props);
+    Object content = msgCtxt.getVariable("mpf_item_content_1");
+    Assert.assertTrue(content instanceof ByteBuffer, "content type");
+    Assert.assertTrue(((ByteBuffer) content).isReadOnly(), "read-only");
+  }
+
+  @Test
+  public void parse_Spilled() throws Exception {
+    File spillDirectory = createTempDirectory("mpf-spill");
+    for (String contentAs : new String[] {"bytes", "bytebuffer"}) {
+      Properties props = new Properties();
+      props.put("size-threshold", "1024");
+      props.put("spill-directory", spillDirectory.getAbsolutePath());
+      props.put("content-as", contentAs);
+      parseAndCheck(props);
+      Object content = msgCtxt.getVariable("mpf_item_content_1");
+      if (contentAs.equals("bytebuffer")) {
+        // the image is larger than the threshold: its content is the mapped spill file
+        Assert.assertTrue(content instanceof MappedByteBuffer, "mapped");
+        Assert.assertTrue(((ByteBuffer) content).isReadOnly(), "read-only");
+      }
+      Assert.assertEquals(msgCtxt.getVariable("mpf_spilled_count"), "1", "spilled_count");
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_spilled_bytes"),
+          loadImageBytes("Logs_512px.png").length + "",
+          "spilled_bytes");
+      // deleted at the end of the execution
+      Assert.assertEquals(spillDirectory.list().length, 0, "spill files remaining");
+    }
+  }
+
+  @Test
+  public void parse_SpillFilePool() throws Exception {
+    File spillDirectory = createTempDirectory("mpf-pool");
+    for (int i = 0; i < 3; i++) {
+      Properties props = new Properties();
+      props.put("size-threshold", "1024");
+      props.put("spill-directory", spillDirectory.getAbsolutePath());
+      props.put("spill-pool-size", "4");
+      parseAndCheck(props);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_spilled_count"), "1", "spilled_count");
+      // the pooled files are kept, and truncated, for reuse
+      File[] files = spillDirectory.listFiles();
+      Assert.assertEquals(files.length, 4, "pooled files");
+      for (File file : files) {
+        Assert.assertEquals(file.length(), 0L, "pooled file length");
+      }
+    }
+    SpillFilePool.discard(spillDirectory);
+    Assert.assertEquals(spillDirectory.list().length, 0, "files after discard");
+  }
+
+  @Test
+  public void parse_SpillDirectoryMissing() throws Exception {
+    loadForm(loadImageBytes("Logs_512px.png"));
+    Properties props = new Properties();
+    props.put("spill-directory", "/no/such/directory");
+    MultipartFormParser callout = new MultipartFormParser(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "ExecutionResult");
+    Assert.assertEquals(
+        msgCtxt.getVariable("mpf_error"),
+        "configuration error: spill-directory /no/such/directory is not a directory");
+  }
+
+  @Test
+  public void parse_Limits() throws Exception {
+    int imageLength = loadImageBytes("Logs_512px.png").length;
+    String[][] limits = {
+      {"max-body-size", "1000", "body exceeds max-body-size of 1000 bytes"},
+      {"max-part-size", "1000", "part exceeds max-part-size of 1000 bytes"},
+      {"max-part-count", "2", "form exceeds max-part-count of 2 parts"},
+      {"max-header-size", "64", "part headers exceed max-header-size of 64 bytes"}
+    };
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "streaming", "false"}
+    };
+    for (String[] config : configs) {
+      for (String[] limit : limits) {
+        for (boolean withLength : new boolean[] {true, false}) {
+          loadForm(loadImageBytes("Logs_512px.png"));
+          if (!withLength) {
+            // the body limit is then enforced as the body is read
+            messageHeaders.remove("content-length");
+          }
+          Properties props = new Properties();
+          props.put(config[0], config[1]);
+          props.put(config[2], config[3]);
+          props.put(limit[0], limit[1]);
+          MultipartFormParser callout = new MultipartFormParser(props);
+          ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+          String label = String.join(" ", config) + " " + limit[0] + " " + withLength;
+          Assert.assertEquals(actualResult, ExecutionResult.ABORT, label);
+          Assert.assertEquals(msgCtxt.getVariable("mpf_error"), limit[2], label);
+        }
+      }
+      // within the limits
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("max-body-size", "100000");
+      props.put("max-part-size", imageLength + "");
+      props.put("max-part-count", "3");
+      props.put("max-header-size", "200");
+      msgCtxt.setVariable("mpf_error", null); // left from the prior executions
+      parseAndCheck(props);
+    }
+  }
+
+  @Test
+  public void parse_HeaderLimitCountsBytes() throws Exception {
+    String fileName = String.join("", Collections.nCopies(40, "\u00e9")) + ".txt";
+    String headers =
+        "Content-Disposition: form-data; name=\"notes\"; filename=\"" + fileName + "\"\r\n";
+    // the limit admits the header block counted in characters, but not in bytes
+    int limit = headers.length() + 2 + 20;
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "streaming", "false"}
+    };
+    for (String[] config : configs) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      appendPart(out, headers, "some notes".getBytes(StandardCharsets.UTF_8));
+      out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+      messageContentStream = new ByteArrayInputStream(out.toByteArray());
+      messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+      messageHeaders.remove("content-length");
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("max-header-size", limit + "");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      String label = String.join(" ", config);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT, label);
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_error"),
+          "part headers exceed max-header-size of " + limit + " bytes",
+          label);
+    }
+  }
+
+  private void loadEncodedForm(byte[] imageBytes) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"image\"; filename=\"Logs_512px.png\"\r\n"
+            + "Content-Type: image/png\r\n"
+            + "Content-Transfer-Encoding: base64\r\n",
+        Base64.getMimeEncoder().encode(imageBytes));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"text\"; filename=\"text.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Transfer-Encoding: Quoted-Printable\r\n",
+        "caf=C3=A9 =3D coffee, with a soft=\r\n line break".getBytes(StandardCharsets.UTF_8));
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    byte[] form = out.toByteArray();
+    messageContentStream = new ByteArrayInputStream(form);
+    messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+  }
+
+  @Test
+  public void parse_DecodeTransferEncoding() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    byte[] text = "caf\u00e9 = coffee, with a soft line break".getBytes(StandardCharsets.UTF_8);
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "content-as", "bytes"},
+      {"parser", "native", "content-as", "bytebuffer"}
+    };
+    for (String[] config : configs) {
+      loadEncodedForm(imageBytes);
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("decode-transfer-encoding", "true");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+      String label = String.join(" ", config);
+      Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, label);
+      Assert.assertEquals(toBytes(msgCtxt.getVariable("mpf_item_content_0")), imageBytes, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_0"), imageBytes.length + "", label);
+      Assert.assertEquals(toBytes(msgCtxt.getVariable("mpf_item_content_1")), text, label);
+    }
+
+    // without the property, the content is stored as it arrived
+    loadEncodedForm(imageBytes);
+    MultipartFormParser callout = new MultipartFormParser(new Properties());
+    callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(
+        toBytes(msgCtxt.getVariable("mpf_item_content_0")),
+        Base64.getMimeEncoder().encode(imageBytes));
+  }
+
+  @Test
+  public void parse_Select() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    String[][] selections = {
+      {"select-names", "image"},
+      {"select-filenames", "*.png, *.jpg"},
+      {"select-content-types", "image/*"},
+      {"select-names", "readme,image", "select-filenames", "Logs_???px.*"}
+    };
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "content-as", "bytebuffer"}
+    };
+    for (String[] config : configs) {
+      for (String[] selection : selections) {
+        loadForm(imageBytes);
+        Properties props = new Properties();
+        props.put(config[0], config[1]);
+        props.put(config[2], config[3]);
+        for (int i = 0; i < selection.length; i += 2) {
+          props.put(selection[i], selection[i + 1]);
+        }
+        MultipartFormParser callout = new MultipartFormParser(props);
+        ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+        String label = String.join(" ", config) + " " + String.join(" ", selection);
+        Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, label);
+        Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "1", label);
+        Assert.assertEquals(msgCtxt.getVariable("mpf_items"), "Logs_512px.png", label);
+        Assert.assertEquals(toBytes(msgCtxt.getVariable("mpf_item_content_0")), imageBytes, label);
+      }
+    }
+
+    // a selection may match no part at all
+    loadForm(imageBytes);
+    Properties props = new Properties();
+    props.put("select-content-types", "application/pdf");
+    MultipartFormParser callout = new MultipartFormParser(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "0");
+
+    // with no selection, the parser skips the matching
+    Assert.assertTrue(PartSelector.compile(null, null, null).selectsAll());
+    Assert.assertFalse(PartSelector.compile("image", null, null).selectsAll());
+  }
+
+  @Test
+  public void parse_LazyContent() throws Exception {
+    File spillDirectory = createTempDirectory("mpf-lazy");
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "size-threshold", "1024"},
+      {"parser", "fileupload", "spill-pool-size", "2"},
+      {"parser", "native", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"}
+    };
+    for (String[] config : configs) {
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("spill-directory", spillDirectory.getAbsolutePath());
+      props.put("content-as", "lazy");
+      parseAndCheck(props);
+      String label = String.join(" ", config);
+      Object content = msgCtxt.getVariable("mpf_item_content_1");
+      Assert.assertTrue(content instanceof LazyContent, label);
+      LazyContent lazy = (LazyContent) content;
+      Assert.assertEquals(lazy.getBytes(), loadImageBytes("Logs_512px.png"), label);
+    }
+
+    // decoded only when it is used; the decoded size is counted without decoding
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    byte[] text = "caf\u00e9 = coffee, with a soft line break".getBytes(StandardCharsets.UTF_8);
+    for (String parser : new String[] {"fileupload", "native"}) {
+      loadEncodedForm(imageBytes);
+      Properties props = new Properties();
+      props.put("parser", parser);
+      props.put("content-as", "lazy");
+      props.put("decode-transfer-encoding", "true");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS, parser);
+      LazyContent lazy = (LazyContent) msgCtxt.getVariable("mpf_item_content_0");
+      Assert.assertFalse(lazy.isMaterialized(), parser);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_0"), imageBytes.length + "", parser);
+      Assert.assertEquals(lazy.knownSize(), imageBytes.length, parser);
+      Assert.assertFalse(lazy.isMaterialized(), parser);
+      Assert.assertEquals(lazy.getBytes(), imageBytes, parser);
+      Assert.assertTrue(lazy.isMaterialized(), parser);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_1"), text.length + "", parser);
+      Assert.assertEquals(toBytes(msgCtxt.getVariable("mpf_item_content_1")), text, parser);
+    }
+  }
+
+  @Test
+  public void parse_MetadataOnly() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "streaming", "false"}
+    };
+    for (String[] config : configs) {
+      loadForm(imageBytes);
+      msgCtxt.setVariable("mpf_item_content_0", null);
+      msgCtxt.setVariable("mpf_item_content_1", null);
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("metadata-only", "true");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+      String label = String.join(" ", config);
+      Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "2", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_filename_1"), "Logs_512px.png", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_content-type_1"), "image/png", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_0"), "29", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_1"), imageBytes.length + "", label);
+      Assert.assertNull(msgCtxt.getVariable("mpf_item_content_0"), label);
+      Assert.assertNull(msgCtxt.getVariable("mpf_item_content_1"), label);
+    }
+  }
+
+  private void loadManyPartForm(int partCount) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < partCount; i++) {
+      byte[] content = new byte[1000 + i * 37];
+      Arrays.fill(content, (byte) i);
+      boolean encoded = (i % 5 == 0);
+      appendPart(
+          out,
+          "Content-Disposition: form-data; name=\"doc"
+              + i
+              + "\"; filename=\"doc-"
+              + i
+              + ".bin\"\r\n"
+              + "Content-Type: application/octet-stream\r\n"
+              + (encoded ? "Content-Transfer-Encoding: base64\r\n" : ""),
+          encoded ? Base64.getMimeEncoder().encode(content) : content);
+    }
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    messageContentStream = new ByteArrayInputStream(out.toByteArray());
+    messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+  }
+
+  @Test
+  public void parse_Parallel() throws Exception {
+    int partCount = 200;
+    for (String threshold : new String[] {"0", "16", "1000"}) {
+      loadManyPartForm(partCount);
+      Properties props = new Properties();
+      props.put("parser", "native");
+      props.put("decode-transfer-encoding", "true");
+      props.put("parallel-threshold", threshold);
+      MultipartFormParser callout = new MultipartFormParser(props);
+      ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, threshold);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), partCount + "", threshold);
+      for (int i = 0; i < partCount; i++) {
+        byte[] expected = new byte[1000 + i * 37];
+        Arrays.fill(expected, (byte) i);
+        String label = threshold + " " + i;
+        // sanitized, without the dash
+        Assert.assertEquals(
+            msgCtxt.getVariable("mpf_item_filename_" + i), "doc" + i + ".bin", label);
+        Assert.assertEquals(
+            toBytes(msgCtxt.getVariable("mpf_item_content_" + i)), expected, label);
+        Assert.assertEquals(msgCtxt.getVariable("mpf_item_size_" + i), expected.length + "", label);
+      }
+    }
+  }
+
+  @Test
+  public void parse_PartVariables() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "streaming", "false"}
+    };
+    for (String[] config : configs) {
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("want-part-variables", "true");
+      parseAndCheck(props);
+      String label = String.join(" ", config);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_part.image.index"), "1", label);
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_part.image.filename"), "Logs_512px.png", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_part.image.content-type"), "image/png", label);
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_part.image.size"), imageBytes.length + "", label);
+      Assert.assertEquals(
+          toBytes(msgCtxt.getVariable("mpf_part.image.content")), imageBytes, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_part.readme.filename"), "readme.txt", label);
+
+      // of two file parts with one name, the first is published, as in the MultipartIndex
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (String fileName : new String[] {"first.txt", "second.txt"}) {
+        appendPart(
+            out,
+            "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n",
+            fileName.getBytes(StandardCharsets.UTF_8));
+      }
+      out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+      messageContentStream = new ByteArrayInputStream(out.toByteArray());
+      MultipartFormParser callout = new MultipartFormParser(props);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "2", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_part.file.filename"), "first.txt", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_part.file.index"), "0", label);
+      Assert.assertEquals(
+          toBytes(msgCtxt.getVariable("mpf_part.file.content")),
+          "first.txt".getBytes(StandardCharsets.UTF_8),
+          label);
+    }
+  }
+
+  @Test
+  public void parse_Manifest() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "streaming", "false"}
+    };
+    for (String[] config : configs) {
+      loadForm(imageBytes);
+      msgCtxt.setVariable("mpf_items", null);
+      msgCtxt.setVariable("mpf_item_filename_0", null);
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("want-manifest", "true");
+      props.put("want-item-variables", "false");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+      String label = String.join(" ", config);
+      Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "2", label);
+      Assert.assertNull(msgCtxt.getVariable("mpf_items"), label);
+      Assert.assertNull(msgCtxt.getVariable("mpf_item_filename_0"), label);
+
+      FormManifest manifest = (FormManifest) msgCtxt.getVariable("mpf_manifest");
+      Assert.assertEquals(manifest.size(), 2, label);
+      FormManifest.Item item = manifest.getItem(1);
+      Assert.assertEquals(item.getName(), "image", label);
+      Assert.assertEquals(item.getFileName(), "Logs_512px.png", label);
+      Assert.assertEquals(item.getSize(), imageBytes.length, label);
+      Assert.assertEquals(toBytes(item.getContent()), imageBytes, label);
+      Assert.assertEquals(
+          manifest.toString(),
+          "{\"itemcount\":2,\"items\":["
+              + "{\"index\":0,\"name\":\"readme\",\"filename\":\"readme.txt\","
+              + "\"content-type\":\"text/plain\",\"size\":29},"
+              + "{\"index\":1,\"name\":\"image\",\"filename\":\"Logs_512px.png\","
+              + "\"content-type\":\"image/png\",\"size\":"
+              + imageBytes.length
+              + "}]}",
+          label);
+      Assert.assertSame(manifest.toString(), manifest.toJson(), "rendered once");
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void parse_Digests() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    String imageSha256 = hex(MessageDigest.getInstance("SHA-256").digest(imageBytes));
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "size-threshold", "0"},
+      {"parser", "fileupload", "content-as", "lazy"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "content-as", "bytebuffer"},
+      {"parser", "native", "content-as", "lazy"},
+      {"parser", "native", "parallel-threshold", "1"}
+    };
+    for (String[] config : configs) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      appendPart(
+          out,
+          "Content-Disposition: form-data; name=\"check\"; filename=\"check.txt\"\r\n"
+              + "Content-Type: text/plain\r\n",
+          "123456789".getBytes(StandardCharsets.UTF_8));
+      appendPart(
+          out,
+          "Content-Disposition: form-data; name=\"image\"; filename=\"Logs_512px.png\"\r\n"
+              + "Content-Type: image/png\r\n"
+              + "Content-Transfer-Encoding: base64\r\n",
+          Base64.getMimeEncoder().encode(imageBytes));
+      out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+      messageContentStream = new ByteArrayInputStream(out.toByteArray());
+      messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("decode-transfer-encoding", "true");
+      props.put("digests", "SHA-256, md5, crc32c");
+      props.put("want-part-variables", "true");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      String label = String.join(" ", config);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS, label);
+
+      // the standard check values for "123456789"
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_crc32c_0"), "e3069283", label);
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_item_md5_0"), "25f9e794323b453885f5181f1b624d0b", label);
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_item_sha256_0"),
+          "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225",
+          label);
+      // over the decoded content
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_sha256_1"), imageSha256, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_part.image.sha256"), imageSha256, label);
+      Assert.assertEquals(toBytes(msgCtxt.getVariable("mpf_item_content_1")), imageBytes, label);
+    }
+  }
+
+  @Test
+  public void parse_DigestsMetadataOnly() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    String imageCrc = String.format("%08x", crc32c(imageBytes));
+    for (String parser : new String[] {"fileupload", "native"}) {
+      loadForm(imageBytes);
+      msgCtxt.setVariable("mpf_item_content_1", null);
+      Properties props = new Properties();
+      props.put("parser", parser);
+      props.put("metadata-only", "true");
+      props.put("digests", "crc32c");
+      props.put("want-manifest", "true");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS, parser);
+      Assert.assertNull(msgCtxt.getVariable("mpf_item_content_1"), parser);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_item_crc32c_1"), imageCrc, parser);
+      FormManifest manifest = (FormManifest) msgCtxt.getVariable("mpf_manifest");
+      Assert.assertEquals(manifest.getItem(1).getDigests().get("crc32c"), imageCrc, parser);
+      Assert.assertTrue(
+          manifest.toJson().contains("\"digests\":{\"crc32c\":\"" + imageCrc + "\"}"), parser);
+    }
+  }
+
+  private static long crc32c(byte[] bytes) {
+    Crc32c crc = new Crc32c();
+    // byte at a time, so it checks the eight-byte steps of the bulk update
+    for (byte b : bytes) {
+      crc.update(b);
+    }
+    return crc.getValue();
+  }
+
+  @Test
+  public void parse_UnsupportedDigest() throws Exception {
+    loadForm(loadImageBytes("Logs_512px.png"));
+    Properties props = new Properties();
+    props.put("digests", "sha-256,whirlpool");
+    MultipartFormParser callout = new MultipartFormParser(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("mpf_error"), "configuration error: unsupported digest: whirlpool");
+  }
+
+  private void loadFormWithFields() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"userId\"\r\n",
+        "42".getBytes(StandardCharsets.UTF_8));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"tag\"\r\n",
+        "café".getBytes(StandardCharsets.UTF_8));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"readme\"; filename=\"readme.txt\"\r\n"
+            + "Content-Type: text/plain\r\n",
+        "Hello World".getBytes(StandardCharsets.UTF_8));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"tag\"\r\n"
+            + "Content-Type: text/plain; charset=ISO-8859-1\r\n",
+        "naïve".getBytes(StandardCharsets.ISO_8859_1));
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    messageContentStream = new ByteArrayInputStream(out.toByteArray());
+    messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+  }
+
+  @Test
+  public void parse_Fields() throws Exception {
+    String[][] configs = {
+      {"parser", "fileupload", "streaming", "false"},
+      {"parser", "fileupload", "streaming", "true"},
+      {"parser", "native", "streaming", "false"}
+    };
+    for (String[] config : configs) {
+      loadFormWithFields();
+      Properties props = new Properties();
+      props.put(config[0], config[1]);
+      props.put(config[2], config[3]);
+      props.put("want-fields", "true");
+      MultipartFormParser callout = new MultipartFormParser(props);
+      ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+      String label = String.join(" ", config);
+      Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_fields"), "userId, tag", label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_field_userId"), "42", label);
+      Assert.assertEquals(
+          msgCtxt.getVariable("mpf_field_tag"),
+          Arrays.asList("café", "naïve"),
+          label);
+      Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "1", label);
+    }
+  }
+
+  @Test
+  public void parse_NotMultipart() throws Exception {
+    messageContentStream = new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8));
+    messageHeaders.put("content-type", "application/json");
+
+    MultipartFormParser callout = new MultipartFormParser(new Properties());
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "ExecutionResult");
+    Assert.assertNotNull(msgCtxt.getVariable("mpf_error"), "error");
+  }
+}
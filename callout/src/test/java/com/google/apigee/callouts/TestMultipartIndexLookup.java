@@ -0,0 +1,154 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Properties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestMultipartIndexLookup extends TestBase {
+  private static final String boundary = "--------------------TESTBOUNDARY02";
+
+  private static void appendPart(ByteArrayOutputStream out, String headers, byte[] content)
+      throws Exception {
+    out.write(("--" + boundary + "\r\n" + headers + "\r\n").getBytes(StandardCharsets.UTF_8));
+    out.write(content);
+    out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void parseForm(byte[] imageBytes, String... parserProperties) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"userId\"\r\n",
+        "42".getBytes(StandardCharsets.UTF_8));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"image\"; filename=\"Logs_512px.png\"\r\n"
+            + "Content-Type: image/png\r\n"
+            + "Content-Transfer-Encoding: base64\r\n",
+        Base64.getMimeEncoder().encode(imageBytes));
+    appendPart(
+        out,
+        "Content-Disposition: form-data; name=\"notes\"; filename=\"../notes<1>.txt\"\r\n"
+            + "Content-Type: text/plain\r\n",
+        "some notes".getBytes(StandardCharsets.UTF_8));
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    messageContentStream = new ByteArrayInputStream(out.toByteArray());
+    messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+
+    Properties props = new Properties();
+    props.put("parser", "native");
+    props.put("index-var", "form_index");
+    for (int i = 0; i < parserProperties.length; i += 2) {
+      props.put(parserProperties[i], parserProperties[i + 1]);
+    }
+    MultipartFormParser callout = new MultipartFormParser(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS, "parse");
+    Assert.assertTrue(msgCtxt.getVariable("form_index") instanceof MultipartIndex, "index");
+  }
+
+  private ExecutionResult lookup(String... properties) {
+    Properties props = new Properties();
+    props.put("index-var", "form_index");
+    for (int i = 0; i < properties.length; i += 2) {
+      props.put(properties[i], properties[i + 1]);
+    }
+    return new MultipartIndexLookup(props).execute(msgCtxt, exeCtxt);
+  }
+
+  @Test
+  public void lookup_ByNameAndIndex() throws Exception {
+    byte[] imageBytes = loadImageBytes("Logs_512px.png");
+    parseForm(imageBytes);
+
+    Assert.assertEquals(lookup("part-name", "userId"), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_index"), "0");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_item"), "-1", "a field is not an item");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_content"), "42".getBytes(StandardCharsets.UTF_8));
+    Assert.assertNull(msgCtxt.getVariable("mpi_filename"));
+
+    Assert.assertEquals(
+        lookup("part-index", "1", "decode-transfer-encoding", "true"), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_name"), "image");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_item"), "0");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_filename"), "Logs_512px.png");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_content-type"), "image/png");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_content"), imageBytes);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_size"), imageBytes.length + "");
+
+    // without decoding, a view over the retained body
+    Assert.assertEquals(
+        lookup("part-name", "image", "content-as", "bytebuffer"), ExecutionResult.SUCCESS);
+    ByteBuffer content = (ByteBuffer) msgCtxt.getVariable("mpi_content");
+    Assert.assertTrue(content.isReadOnly());
+    byte[] encoded = new byte[content.remaining()];
+    content.get(encoded);
+    Assert.assertEquals(encoded, Base64.getMimeEncoder().encode(imageBytes));
+  }
+
+  @Test
+  public void lookup_ByItemIndex() throws Exception {
+    // numbered as the parser numbers its items: selected file parts only
+    parseForm(loadImageBytes("Logs_512px.png"), "select-content-types", "text/*");
+    Assert.assertEquals(msgCtxt.getVariable("mpf_itemcount"), "1");
+    Assert.assertEquals(lookup("item-index", "0"), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_index"), "2");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_item"), "0");
+    Assert.assertEquals(msgCtxt.getVariable("mpi_name"), "notes");
+    // sanitized, as in mpf_item_filename_0
+    Assert.assertEquals(msgCtxt.getVariable("mpi_filename"), "..notes1.txt");
+    Assert.assertEquals(
+        (String) msgCtxt.getVariable("mpi_filename"),
+        (String) msgCtxt.getVariable("mpf_item_filename_0"));
+
+    Assert.assertEquals(lookup("part-name", "image"), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_item"), "-1", "not selected");
+    Assert.assertEquals(lookup("item-index", "1"), ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_error"), "no item at index 1");
+  }
+
+  @Test
+  public void lookup_Missing() throws Exception {
+    parseForm(loadImageBytes("Logs_512px.png"));
+    Assert.assertEquals(lookup("part-name", "nothing"), ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_error"), "no part named nothing");
+    Assert.assertEquals(lookup("part-index", "3"), ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("mpi_error"), "no part at index 3");
+    Assert.assertEquals(lookup(), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("mpi_error"), "specify part-name, part-index or item-index");
+  }
+
+  @Test
+  public void parse_IndexRequiresNativeParser() throws Exception {
+    messageContentStream = new ByteArrayInputStream(new byte[0]);
+    messageHeaders.put("content-type", "multipart/form-data; boundary=" + boundary);
+    Properties props = new Properties();
+    props.put("index-var", "form_index");
+    MultipartFormParser callout = new MultipartFormParser(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("mpf_error"), "configuration error: index-var requires parser native");
+  }
+}
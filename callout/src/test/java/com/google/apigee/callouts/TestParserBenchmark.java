@@ -0,0 +1,134 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.AdapterHttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// Checks that the parse paths agree, and, in the benchmark group, which the
+// build excludes by default, roughly compares them. That is not a rigorous
+// benchmark; it runs a few iterations after a warmup, and prints the mean time
+// per parse.
+public class TestParserBenchmark {
+  private static final String boundary = "--------------------BENCHMARK0001";
+  private static final String contentType = "multipart/form-data; boundary=" + boundary;
+  private static final int iterations = 20;
+
+  private static byte[] createForm(int partCount, int partSize) throws Exception {
+    Random random = new Random(42);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < partCount; i++) {
+      byte[] content = new byte[partSize];
+      random.nextBytes(content);
+      String headers =
+          String.format(
+              "--%s\r\n"
+                  + "Content-Disposition: form-data; name=\"part%d\"; filename=\"file%d.bin\"\r\n"
+                  + "Content-Type: application/octet-stream\r\n\r\n",
+              boundary, i, i);
+      out.write(headers.getBytes(StandardCharsets.UTF_8));
+      out.write(content);
+      out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    return out.toByteArray();
+  }
+
+  private static List<byte[]> parseWithFileUpload(byte[] form) throws Exception {
+    DiskFileItemFactory fileItemFactory = new DiskFileItemFactory();
+    fileItemFactory.setSizeThreshold(64 * 1024 * 1024);
+    ServletFileUpload upload = new ServletFileUpload(fileItemFactory);
+    List<byte[]> contents = new ArrayList<byte[]>();
+    for (FileItem item : upload.parseRequest(new AdapterHttpServletRequest(form, contentType))) {
+      contents.add(CalloutBase.streamToByteArray(item.getInputStream()));
+    }
+    return contents;
+  }
+
+  private static List<byte[]> parseWithScanner(byte[] form) throws Exception {
+    MultipartScanner scanner =
+        new MultipartScanner(form, MultipartScanner.getBoundary(contentType));
+    List<byte[]> contents = new ArrayList<byte[]>();
+    while (scanner.hasNext()) {
+      MultipartScanner.ScannedPart part = scanner.next();
+      int start = part.getContentOffset();
+      contents.add(Arrays.copyOfRange(form, start, start + part.getContentLength()));
+    }
+    return contents;
+  }
+
+  private interface Parse {
+    List<byte[]> apply(byte[] form) throws Exception;
+  }
+
+  private static void time(String label, Parse parse, byte[] form) throws Exception {
+    for (int i = 0; i < iterations / 2; i++) {
+      parse.apply(form); // warmup
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      parse.apply(form);
+    }
+    double ms = (System.nanoTime() - start) / 1e6 / iterations;
+    System.out.printf("  %-28s %8.3f ms/parse\n", label, ms);
+  }
+
+  private static void checkSameParts(byte[] form) throws Exception {
+    List<byte[]> expected = parseWithFileUpload(form);
+    List<byte[]> actual = parseWithScanner(form);
+    Assert.assertEquals(actual.size(), expected.size(), "part count");
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(actual.get(i), expected.get(i), "part " + i);
+    }
+  }
+
+  private static void compare(String description, byte[] form) throws Exception {
+    System.out.printf("\n** %s, %d bytes\n", description, form.length);
+    time("fileupload", TestParserBenchmark::parseWithFileUpload, form);
+    time("native", TestParserBenchmark::parseWithScanner, form);
+  }
+
+  @Test
+  public void parse_FewLargeParts() throws Exception {
+    checkSameParts(createForm(4, 1024 * 1024));
+  }
+
+  @Test
+  public void parse_ManySmallParts() throws Exception {
+    checkSameParts(createForm(500, 512));
+  }
+
+  @Test(groups = "benchmark")
+  public void benchmark_FewLargeParts() throws Exception {
+    compare("4 parts x 1MB", createForm(4, 1024 * 1024));
+  }
+
+  @Test(groups = "benchmark")
+  public void benchmark_ManySmallParts() throws Exception {
+    compare("500 parts x 512 bytes", createForm(500, 512));
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import java.util.Properties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPropertyTemplate extends TestBase {
+
+  @Test
+  public void resolve() throws Exception {
+    msgCtxt.setVariable("a", "AAA");
+    msgCtxt.setVariable("b.c", "BC");
+    msgCtxt.setVariable("empty", "");
+    // a reference is a variable name, with no curlies or spaces, in curlies;
+    // anything else is literal, and an empty result is null
+    String[][] cases = {
+      {"constant", "constant"},
+      {"{a}", "AAA"},
+      {"{empty}", null},
+      {"{unknown}", null},
+      {"prefix-{a}-suffix", "prefix-AAA-suffix"},
+      {"{a}{b.c}", "AAABC"},
+      {"{a {b.c}", "{a BC"},
+      {"{ a }", "{ a }"},
+      {"{}", "{}"},
+      {"{{a}}", "{AAA}"},
+      {"}{a}{", "}AAA{"},
+      {"line1\n{a}\nline2 {b.c}", "line1\nAAA\nline2 BC"},
+      {
+        "{\n  \"part1\" : { \"content-var\" : \"{a}\" }\n}",
+        "{\n  \"part1\" : { \"content-var\" : \"AAA\" }\n}"
+      }
+    };
+    for (String[] c : cases) {
+      Assert.assertEquals(PropertyTemplate.compile(c[0]).resolve(msgCtxt), c[1], c[0]);
+    }
+  }
+
+  @Test
+  public void isConstant() {
+    Assert.assertTrue(PropertyTemplate.compile("{ \"part1\" : { } }").isConstant());
+    Assert.assertTrue(PropertyTemplate.compile("{}").isConstant());
+    Assert.assertFalse(PropertyTemplate.compile("x{a}").isConstant());
+  }
+
+  @Test
+  public void resolve_MemoizedWithinRequest() throws Exception {
+    msgCtxt.setVariable("a", "first");
+    msgCtxt.setVariable("n", "42");
+    Properties props = new Properties();
+    props.put("p", "value-{a}");
+    props.put("count", "{n}");
+    CalloutBase callout =
+        new CalloutBase(props) {
+          public String getVarnamePrefix() {
+            return "test_";
+          }
+        };
+
+    callout.beginRequest(msgCtxt);
+    try {
+      Assert.assertEquals(callout.getSimpleOptionalProperty("p", msgCtxt), "value-first");
+      Assert.assertEquals(callout.getIntProperty("count", 0, msgCtxt), 42);
+      msgCtxt.setVariable("a", "second");
+      msgCtxt.setVariable("n", "7");
+      Assert.assertEquals(callout.getSimpleOptionalProperty("p", msgCtxt), "value-first");
+      Assert.assertEquals(callout.getIntProperty("count", 0, msgCtxt), 42);
+      Assert.assertNull(callout.getSimpleOptionalProperty("absent", msgCtxt));
+    } finally {
+      callout.endRequest();
+    }
+    Assert.assertEquals(callout.getSimpleOptionalProperty("p", msgCtxt), "value-second");
+    Assert.assertEquals(callout.getIntProperty("count", 0, msgCtxt), 7);
+  }
+}
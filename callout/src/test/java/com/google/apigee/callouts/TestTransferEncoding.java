@@ -0,0 +1,136 @@
+// Copyright 2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.Base64EncodingInputStream;
+import com.google.apigee.QuotedPrintableDecodingInputStream;
+import com.google.apigee.QuotedPrintableEncodingInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestTransferEncoding {
+
+  // a minimal decoder, to check round trips
+  private static byte[] decodeQuotedPrintable(String encoded) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < encoded.length(); i++) {
+      char c = encoded.charAt(i);
+      if (c == '=') {
+        if (encoded.startsWith("\r\n", i + 1)) {
+          i += 2;
+        } else {
+          out.write(Integer.parseInt(encoded.substring(i + 1, i + 3), 16));
+          i += 2;
+        }
+      } else {
+        out.write(c);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void base64_SameAsMimeEncoder() throws Exception {
+    Random random = new Random(5);
+    int[] lengths = {0, 1, 2, 3, 56, 57, 58, 114, 2735, 2736, 2737, 10000};
+    for (int length : lengths) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      byte[] expected = Base64.getMimeEncoder().encode(data);
+      byte[] actual =
+          CalloutBase.streamToByteArray(
+              new Base64EncodingInputStream(new ByteArrayInputStream(data)));
+      Assert.assertEquals(actual, expected, "length " + length);
+      Assert.assertEquals(Base64EncodingInputStream.encodedLength(length), expected.length);
+    }
+  }
+
+  @Test
+  public void quotedPrintable_Encode() throws Exception {
+    String[][] cases = {
+      {"Hello World", "Hello World"},
+      {"a=b", "a=3Db"},
+      {"trailing space \r\nnext", "trailing space=20\r\nnext"},
+      {"tab at end\t", "tab at end=09"},
+      {"bare\nnewline", "bare=0Anewline"},
+      {"caf\u00e9", "caf=C3=A9"}
+    };
+    for (String[] c : cases) {
+      byte[] source = c[0].getBytes(StandardCharsets.UTF_8);
+      String encoded =
+          new String(
+              CalloutBase.streamToByteArray(
+                  new QuotedPrintableEncodingInputStream(new ByteArrayInputStream(source))),
+              StandardCharsets.US_ASCII);
+      Assert.assertEquals(encoded, c[1]);
+    }
+  }
+
+  @Test
+  public void quotedPrintable_RoundTrip() throws Exception {
+    Random random = new Random(9);
+    for (int length : new int[] {0, 1, 75, 76, 77, 1000, 20000}) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      byte[] encoded =
+          CalloutBase.streamToByteArray(
+              new QuotedPrintableEncodingInputStream(new ByteArrayInputStream(data)));
+      Assert.assertEquals(
+          QuotedPrintableEncodingInputStream.encodedLength(new ByteArrayInputStream(data)),
+          encoded.length);
+      String text = new String(encoded, StandardCharsets.US_ASCII);
+      for (String line : text.split("\r\n")) {
+        Assert.assertTrue(line.length() <= 76, "line length " + line.length());
+      }
+      Assert.assertEquals(decodeQuotedPrintable(text), data, "length " + length);
+      Assert.assertEquals(
+          CalloutBase.streamToByteArray(
+              new QuotedPrintableDecodingInputStream(new ByteArrayInputStream(encoded))),
+          data,
+          "decoding stream, length " + length);
+    }
+  }
+
+  @Test
+  public void quotedPrintable_DecodedLength() throws Exception {
+    String[] cases = {
+      "", "plain", "caf=C3=A9", "soft=\r\nbreak", "soft=\nbreak", "end=", "end=4", "end=\r",
+      "=\rX", "=4G", "==41", "=G1", "a=\r=41", "=3d=3D", "x=41=\r\ny=\n"
+    };
+    for (String c : cases) {
+      byte[] encoded = c.getBytes(StandardCharsets.US_ASCII);
+      byte[] decoded =
+          CalloutBase.streamToByteArray(
+              new QuotedPrintableDecodingInputStream(new ByteArrayInputStream(encoded)));
+      Assert.assertEquals(
+          QuotedPrintableDecodingInputStream.decodedLength(new ByteArrayInputStream(encoded)),
+          decoded.length,
+          c);
+    }
+    byte[] data = new byte[20000];
+    new Random(13).nextBytes(data);
+    Assert.assertEquals(
+        QuotedPrintableDecodingInputStream.decodedLength(
+            new QuotedPrintableEncodingInputStream(new ByteArrayInputStream(data))),
+        data.length);
+  }
+}